@@ -1,4 +1,15 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 class Movie {
@@ -16,58 +27,504 @@ class Movie {
 }
 class Seat {
     int seatNumber;
-    boolean isAvailable;
+    int row;
+    int column;
 
-    public Seat(int number) {
+    public Seat(int number, int row, int column) {
         this.seatNumber = number;
-        this.isAvailable = true;
+        this.row = row;
+        this.column = column;
+    }
+}
+// Seat state for one show packed into 64-seat words, bit set = free.
+// Seat n lives at bit (n-1), so lookups are direct and claims are a single CAS.
+class SeatMap {
+    private final AtomicLongArray words;
+    private final int capacity;
+
+    public SeatMap(int capacity) {
+        this.capacity = capacity;
+        this.words = new AtomicLongArray((capacity + 63) >>> 6);
+        for (int w = 0; w < words.length(); w++) {
+            int bitsInWord = Math.min(64, capacity - (w << 6));
+            words.set(w, bitsInWord == 64 ? -1L : (1L << bitsInWord) - 1);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFree(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    // Clears the seat's bit; only one caller can win a given seat.
+    public boolean claim(int index) {
+        int w = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long current = words.get(w);
+            if ((current & mask) == 0) {
+                return false;
+            }
+            if (words.compareAndSet(w, current, current & ~mask)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean release(int index) {
+        int w = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long current = words.get(w);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(w, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    // Next free index at or after fromIndex, or -1 when there is none.
+    public int nextFree(int fromIndex) {
+        if (fromIndex >= capacity) {
+            return -1;
+        }
+        int w = fromIndex >>> 6;
+        long word = words.get(w) & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length()) {
+                return -1;
+            }
+            word = words.get(w);
+        }
+    }
+
+    // The 64 seats starting at index w * 64, bit set = free.
+    public long word(int w) {
+        return words.get(w);
+    }
+
+    public int freeCount() {
+        int count = 0;
+        for (int w = 0; w < words.length(); w++) {
+            count += Long.bitCount(words.get(w));
+        }
+        return count;
+    }
+}
+// Free-run segment tree over one row: every node keeps its longest free prefix, suffix and inner run.
+class RowSegmentTree {
+    private final int size;
+    private final int[] pre;
+    private final int[] suf;
+    private final int[] best;
+    private int carry;
+
+    public RowSegmentTree(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A row needs at least one seat: " + size);
+        }
+        this.size = size;
+        this.pre = new int[4 * size];
+        this.suf = new int[4 * size];
+        this.best = new int[4 * size];
+        build(1, 0, size - 1);
+    }
+
+    private void build(int node, int l, int r) {
+        pre[node] = suf[node] = best[node] = r - l + 1;
+        if (l < r) {
+            int mid = (l + r) >>> 1;
+            build(2 * node, l, mid);
+            build(2 * node + 1, mid + 1, r);
+        }
+    }
+
+    public synchronized int longestFreeRun() {
+        return best[1];
+    }
+
+    public synchronized void set(int column, boolean free) {
+        update(1, 0, size - 1, column, free ? 1 : 0);
+    }
+
+    private void update(int node, int l, int r, int column, int value) {
+        if (l == r) {
+            pre[node] = suf[node] = best[node] = value;
+            return;
+        }
+        int mid = (l + r) >>> 1;
+        if (column <= mid) {
+            update(2 * node, l, mid, column, value);
+        } else {
+            update(2 * node + 1, mid + 1, r, column, value);
+        }
+        int left = 2 * node, right = 2 * node + 1;
+        int leftLen = mid - l + 1, rightLen = r - mid;
+        pre[node] = (pre[left] == leftLen) ? leftLen + pre[right] : pre[left];
+        suf[node] = (suf[right] == rightLen) ? rightLen + suf[left] : suf[right];
+        best[node] = Math.max(Math.max(best[left], best[right]), suf[left] + pre[right]);
+    }
+
+    // Start of the first run of n free seats starting at or after 'from', or -1.
+    public synchronized int firstFit(int n, int from) {
+        carry = 0;
+        return firstFit(1, 0, size - 1, n, from);
+    }
+
+    private int firstFit(int node, int l, int r, int n, int from) {
+        if (r < from) {
+            return -1;
+        }
+        if (l >= from) {
+            if (carry + pre[node] >= n) {
+                return l - carry;
+            }
+            if (best[node] < n) {
+                carry = (pre[node] == r - l + 1) ? carry + pre[node] : suf[node];
+                return -1;
+            }
+        }
+        int mid = (l + r) >>> 1;
+        int found = firstFit(2 * node, l, mid, n, from);
+        return (found >= 0) ? found : firstFit(2 * node + 1, mid + 1, r, n, from);
+    }
+
+    // End of the last run of n free seats ending at or before 'to', or -1.
+    public synchronized int lastFit(int n, int to) {
+        carry = 0;
+        return lastFit(1, 0, size - 1, n, to);
+    }
+
+    private int lastFit(int node, int l, int r, int n, int to) {
+        if (l > to) {
+            return -1;
+        }
+        if (r <= to) {
+            if (carry + suf[node] >= n) {
+                return r + carry;
+            }
+            if (best[node] < n) {
+                carry = (suf[node] == r - l + 1) ? carry + suf[node] : pre[node];
+                return -1;
+            }
+        }
+        int mid = (l + r) >>> 1;
+        int found = lastFit(2 * node + 1, mid + 1, r, n, to);
+        return (found >= 0) ? found : lastFit(2 * node, l, mid, n, to);
+    }
+}
+// Row/column view of a show's seats. Rows are tried from the best view (about two thirds back)
+// outwards, and within a row the free block closest to the centre wins.
+// The SeatMap is the source of truth and bookings never touch the row trees: a booking only flags
+// its row as changed, and a search brings a flagged row's tree up to date from the bitmap first,
+// walking only the row's words and updating only the seats that differ from what the tree last saw.
+class SeatLayout {
+    final int rows;
+    final int seatsPerRow;
+    private final SeatMap seatMap;
+    private final RowSegmentTree[] rowTrees;
+    // Per row, the bitmap words (from the row's first word on) as the tree last saw them.
+    private final long[][] seenWords;
+    private final AtomicIntegerArray changed;
+    private final int[] rowPreference;
+
+    public SeatLayout(int rows, int seatsPerRow, SeatMap seatMap) {
+        this.rows = rows;
+        this.seatsPerRow = seatsPerRow;
+        this.seatMap = seatMap;
+        this.rowTrees = new RowSegmentTree[rows];
+        this.seenWords = new long[rows][];
+        this.changed = new AtomicIntegerArray(rows);
+        for (int r = 0; r < rows; r++) {
+            rowTrees[r] = new RowSegmentTree(seatsPerRow);
+            int first = r * seatsPerRow;
+            int last = first + seatsPerRow - 1;
+            seenWords[r] = new long[(last >>> 6) - (first >>> 6) + 1];
+            Arrays.fill(seenWords[r], -1L);
+        }
+        int idealRow = (rows * 2) / 3;
+        Integer[] order = new Integer[rows];
+        for (int r = 0; r < rows; r++) {
+            order[r] = r;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byDistance = Integer.compare(Math.abs(a - idealRow), Math.abs(b - idealRow));
+            return (byDistance != 0) ? byDistance : Integer.compare(b, a);
+        });
+        this.rowPreference = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            rowPreference[i] = order[i];
+        }
+    }
+
+    public int rowOf(int index) {
+        return index / seatsPerRow;
+    }
+
+    public int columnOf(int index) {
+        return index % seatsPerRow;
+    }
+
+    // Called after every claim or release of the seat; a plain read when the row is already flagged.
+    public void markChanged(int index) {
+        int row = rowOf(index);
+        if (changed.get(row) == 0) {
+            changed.set(row, 1);
+        }
+    }
+
+    // The flag is cleared before the bitmap is read, so a change the read misses flags the row again.
+    private RowSegmentTree refreshedTree(int row) {
+        RowSegmentTree tree = rowTrees[row];
+        if (changed.get(row) == 0) {
+            return tree;
+        }
+        synchronized (tree) {
+            if (changed.getAndSet(row, 0) == 0) {
+                return tree;
+            }
+            int first = row * seatsPerRow;
+            int last = first + seatsPerRow - 1;
+            long[] seen = seenWords[row];
+            for (int w = first >>> 6; w <= last >>> 6; w++) {
+                long current = seatMap.word(w);
+                long diff = current ^ seen[w - (first >>> 6)];
+                seen[w - (first >>> 6)] = current;
+                while (diff != 0) {
+                    int index = (w << 6) + Long.numberOfTrailingZeros(diff);
+                    diff &= diff - 1;
+                    if (index >= first && index <= last) {
+                        tree.set(index - first, (current & (1L << index)) != 0);
+                    }
+                }
+            }
+        }
+        return tree;
+    }
+
+    // Seat index of the first seat in the best block of n adjacent free seats, or -1.
+    public int findBestBlock(int n) {
+        if (n < 1 || n > seatsPerRow) {
+            return -1;
+        }
+        int centreStart = (seatsPerRow - n) / 2;
+        for (int row : rowPreference) {
+            RowSegmentTree tree = refreshedTree(row);
+            if (tree.longestFreeRun() < n) {
+                continue;
+            }
+            int right = tree.firstFit(n, centreStart);
+            int leftEnd = tree.lastFit(n, centreStart + n - 1);
+            int left = (leftEnd >= 0) ? leftEnd - n + 1 : -1;
+            int start;
+            if (right < 0) {
+                start = left;
+            } else if (left < 0) {
+                start = right;
+            } else {
+                start = (centreStart - left <= right - centreStart) ? left : right;
+            }
+            if (start >= 0) {
+                return row * seatsPerRow + start;
+            }
+        }
+        return -1;
     }
 }
 class Screen {
     String screenName;
+    Theatre theatre;
     List<Show> shows;
 
     public Screen(String name) {
         this.screenName = name;
-        this.shows = new ArrayList<>();
+        this.shows = new CopyOnWriteArrayList<>();
+    }
+
+    public void addShow(Show show) {
+        shows.add(show);
+        if (theatre != null && theatre.isListed()) {
+            theatre.location.notifyShowAdded(theatre, show);
+        }
+    }
+
+    public boolean removeShow(Show show) {
+        if (!shows.remove(show)) {
+            return false;
+        }
+        if (theatre != null && theatre.isListed()) {
+            theatre.location.notifyShowRemoved(theatre, show);
+        }
+        return true;
     }
 }
 class Show {
+    private static final int MAX_BEST_AVAILABLE_ATTEMPTS = 16;
+
     int showId;
     Movie movie;
     int showStartTime; 
     Screen screen;
     List<Seat> seats;
+    SeatMap seatMap;
+    SeatLayout layout;
+    BookingJournal journal;
+    private volatile SeatChangeFeed changeFeed;
+    // Holds whose seats are claimed but not yet sold or given back.
+    private final AtomicInteger openHolds = new AtomicInteger();
 
     public Show(int id, Movie movie, int time, Screen screen, int totalSeats) {
+        this(id, movie, time, screen, 1, totalSeats);
+    }
+
+    public Show(int id, Movie movie, int time, Screen screen, int rows, int seatsPerRow) {
         this.showId = id;
         this.movie = movie;
         this.showStartTime = time;
         this.screen = screen;
+        this.seatMap = new SeatMap(rows * seatsPerRow);
+        this.layout = new SeatLayout(rows, seatsPerRow, seatMap);
         this.seats = new ArrayList<>();
-        for (int i = 1; i <= totalSeats; i++) {
-            this.seats.add(new Seat(i));
+        for (int i = 0; i < rows * seatsPerRow; i++) {
+            this.seats.add(new Seat(i + 1, layout.rowOf(i), layout.columnOf(i)));
         }
     }
 
     public void displayAvailableSeats() {
-        System.out.print("Available seats: ");
-        for (Seat seat : seats) {
-            if (seat.isAvailable) {
-                System.out.print(seat.seatNumber + " ");
+        StringBuilder sb = new StringBuilder("Available seats: ");
+        for (int i = seatMap.nextFree(0); i >= 0; i = seatMap.nextFree(i + 1)) {
+            sb.append(i + 1).append(' ');
+        }
+        System.out.println(sb);
+    }
+
+    public boolean isSeatAvailable(int seatNumber) {
+        return isValidSeat(seatNumber) && seatMap.isFree(seatNumber - 1);
+    }
+
+    // The claim itself is a CAS; concurrent bookers only contend when they hit the same 64-seat word.
+    // The row trees are not touched here: the row is only flagged for the next best-seat search.
+    public boolean bookSeat(int seatNumber) {
+        if (!isValidSeat(seatNumber) || !seatMap.claim(seatNumber - 1)) {
+            return false;
+        }
+        syncLayout(seatNumber - 1);
+        return true;
+    }
+
+    public boolean releaseSeat(int seatNumber) {
+        if (!isValidSeat(seatNumber) || !seatMap.release(seatNumber - 1)) {
+            return false;
+        }
+        syncLayout(seatNumber - 1);
+        return true;
+    }
+
+    private void syncLayout(int index) {
+        layout.markChanged(index);
+        SeatChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(index + 1);
+        }
+    }
+
+    // Created on first watch, so shows nobody is watching do not pay for the change ring. Seats sold
+    // before then reach watchers through the full snapshot the feed starts them with.
+    public SeatChangeFeed getChangeFeed() {
+        SeatChangeFeed feed = changeFeed;
+        if (feed == null) {
+            synchronized (this) {
+                if (changeFeed == null) {
+                    changeFeed = new SeatChangeFeed(this, 1024);
+                }
+                feed = changeFeed;
             }
         }
-        System.out.println();
+        return feed;
     }
 
-      public synchronized boolean bookSeat(int seatNumber) {
-        for (Seat seat : seats) {
-            if (seat.seatNumber == seatNumber && seat.isAvailable) {
-                seat.isAvailable = false; 
-                return true;
+    // Seat numbers of the best block of n adjacent free seats, or null if no row has room.
+    public int[] findBestSeats(int n) {
+        int start = layout.findBestBlock(n);
+        if (start < 0) {
+            return null;
+        }
+        int[] seatNumbers = new int[n];
+        for (int i = 0; i < n; i++) {
+            seatNumbers[i] = start + i + 1;
+        }
+        return seatNumbers;
+    }
+
+    // Retries with a fresh search when another booker takes part of the chosen block first. The lost
+    // block's row is flagged so the next search sees it taken, and a booker that keeps losing gives up.
+    public int[] bookBestAvailable(int n) {
+        for (int attempt = 0; attempt < MAX_BEST_AVAILABLE_ATTEMPTS; attempt++) {
+            int[] seatNumbers = findBestSeats(n);
+            if (seatNumbers == null) {
+                return null;
+            }
+            if (bookSeats(seatNumbers)) {
+                return seatNumbers;
+            }
+            for (int seatNumber : seatNumbers) {
+                layout.markChanged(seatNumber - 1);
+            }
+        }
+        return null;
+    }
+
+    // All-or-nothing: if any seat is taken, the ones already claimed are rolled back.
+    public boolean bookSeats(int[] seatNumbers) {
+        for (int i = 0; i < seatNumbers.length; i++) {
+            if (!bookSeat(seatNumbers[i])) {
+                for (int j = 0; j < i; j++) {
+                    releaseSeat(seatNumbers[j]);
+                }
+                return false;
             }
         }
-        return false; 
+        return true;
+    }
+
+    public void releaseSeats(int[] seatNumbers) {
+        for (int seatNumber : seatNumbers) {
+            releaseSeat(seatNumber);
+        }
+    }
+
+    // Claims every seat for the user while they pay; the wheel frees them if the hold is not confirmed in time.
+    // The hold is counted before its seats are claimed, so a held seat is never seen as sold.
+    public SeatHold holdSeats(User user, int[] seatNumbers, HoldExpiryWheel expiryWheel, long ttlMillis) {
+        int[] seatsToHold = seatNumbers.clone();
+        openHolds.incrementAndGet();
+        if (!bookSeats(seatsToHold)) {
+            openHolds.decrementAndGet();
+            return null;
+        }
+        SeatHold hold = new SeatHold(user, this, seatsToHold, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        expiryWheel.schedule(hold);
+        return hold;
+    }
+
+    public int openHolds() {
+        return openHolds.get();
+    }
+
+    void holdEnded() {
+        openHolds.decrementAndGet();
+    }
+
+    private boolean isValidSeat(int seatNumber) {
+        return seatNumber >= 1 && seatNumber <= seatMap.capacity();
     }
 }
 class Theatre {
@@ -78,18 +535,85 @@ class Theatre {
     public Theatre(String name, Location location) {
         this.name = name;
         this.location = location;
-        this.screens = new ArrayList<>();
+        this.screens = new CopyOnWriteArrayList<>();
+    }
+
+    // Only a theatre its location has listed publishes schedule events; until then
+    // Location.addTheatre replays whatever it has when it is listed.
+    public void addScreen(Screen screen) {
+        screen.theatre = this;
+        screens.add(screen);
+        if (isListed()) {
+            for (Show show : screen.shows) {
+                location.notifyShowAdded(this, show);
+            }
+        }
+    }
+
+    boolean isListed() {
+        return location != null && location.cinemaHalls.contains(this);
     }
 }
+// Notified whenever a show is scheduled in, or taken off, a screen of a location. The same event
+// may be delivered more than once, so implementations must be idempotent per show.
+interface ShowScheduleListener {
+    void onShowAdded(Location location, Theatre theatre, Show show);
+
+    void onShowRemoved(Location location, Theatre theatre, Show show);
+}
 class Location {
     String cityName;
     String pincode;
-    List<Theatre> cinemaHalls;
+    CopyOnWriteArrayList<Theatre> cinemaHalls;
+    List<ShowScheduleListener> scheduleListeners;
 
     public Location(String city, String pin) {
         this.cityName = city;
         this.pincode = pin;
-        this.cinemaHalls = new ArrayList<>();
+        this.cinemaHalls = new CopyOnWriteArrayList<>();
+        this.scheduleListeners = new CopyOnWriteArrayList<>();
+    }
+
+    public void addTheatre(Theatre theatre) {
+        theatre.location = this;
+        if (!cinemaHalls.addIfAbsent(theatre)) {
+            return;
+        }
+        for (Screen screen : theatre.screens) {
+            for (Show show : screen.shows) {
+                notifyShowAdded(theatre, show);
+            }
+        }
+    }
+
+    // Replays the shows already scheduled here so the listener starts in sync. The listener is
+    // registered first so no show added meanwhile is missed; listeners must therefore treat a repeated
+    // add or remove of the same show as a no-op. A show removed while it was being replayed is
+    // removed again, so the replay cannot resurrect it.
+    public void addScheduleListener(ShowScheduleListener listener) {
+        scheduleListeners.add(listener);
+        for (Theatre theatre : cinemaHalls) {
+            for (Screen screen : theatre.screens) {
+                for (Show show : screen.shows) {
+                    listener.onShowAdded(this, theatre, show);
+                    if (!screen.shows.contains(show)) {
+                        listener.onShowRemoved(this, theatre, show);
+                    }
+                }
+            }
+        }
+    }
+
+    void notifyShowAdded(Theatre theatre, Show show) {
+        for (ShowScheduleListener listener : scheduleListeners) {
+            listener.onShowAdded(this, theatre, show);
+        }
+    }
+
+    void notifyShowRemoved(Theatre theatre, Show show) {
+        for (ShowScheduleListener listener : scheduleListeners) {
+            listener.onShowRemoved(this, theatre, show);
+        }
     }
 }
 class User {
@@ -101,52 +625,328 @@ class User {
         this.userName = name;
     }
 }
+enum HoldStatus {
+    HELD,
+    CONFIRMED,
+    EXPIRED,
+    RELEASED
+}
+class SeatHold {
+    private static final AtomicInteger holdCounter = new AtomicInteger(1);
+
+    final int holdId;
+    final User user;
+    final Show show;
+    final int[] seatNumbers;
+    final long expiresAtNanos;
+    long deadlineTick;
+    private final AtomicReference<HoldStatus> status = new AtomicReference<>(HoldStatus.HELD);
+
+    public SeatHold(User user, Show show, int[] seatNumbers, long expiresAtNanos) {
+        this.holdId = holdCounter.getAndIncrement();
+        this.user = user;
+        this.show = show;
+        this.seatNumbers = seatNumbers;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public HoldStatus getStatus() {
+        return status.get();
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    // Confirm and expiry race on the same CAS, so the seats are either sold or freed, never both.
+    public boolean confirm() {
+        if (isExpired(System.nanoTime())) {
+            expire();
+            return false;
+        }
+        if (!status.compareAndSet(HoldStatus.HELD, HoldStatus.CONFIRMED)) {
+            return false;
+        }
+        show.holdEnded();
+        return true;
+    }
+
+    public boolean expire() {
+        return finish(HoldStatus.EXPIRED);
+    }
+
+    public boolean release() {
+        return finish(HoldStatus.RELEASED);
+    }
+
+    private boolean finish(HoldStatus endStatus) {
+        if (status.compareAndSet(HoldStatus.HELD, endStatus)) {
+            // seats go back before the hold stops counting, so they are never missing from both
+            show.releaseSeats(seatNumbers);
+            show.holdEnded();
+            return true;
+        }
+        return false;
+    }
+}
+// Hashed timer wheel: each tick only looks at one bucket, so expiry cost tracks the holds due, not the holds open.
+class HoldExpiryWheel {
+    private final long tickNanos;
+    private final long startNanos;
+    private final ConcurrentLinkedQueue<SeatHold>[] buckets;
+    private final int mask;
+    private final ScheduledExecutorService ticker;
+    // Guards currentTick and the bucket the ticker is draining, so a hold is never placed behind the cursor.
+    private final Object tickLock = new Object();
+    private long currentTick;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public HoldExpiryWheel(long tickMillis, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = System.nanoTime();
+        this.buckets = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hold-expiry-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void schedule(SeatHold hold) {
+        long deadlineTick = (hold.expiresAtNanos - startNanos + tickNanos - 1) / tickNanos;
+        synchronized (tickLock) {
+            // A hold that is already due goes into the next bucket the ticker will visit.
+            hold.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+            buckets[(int) (hold.deadlineTick & mask)].add(hold);
+        }
+    }
+
+    // Due holds are unlinked under the lock and expired after it, so releasing seats never blocks schedule.
+    void advance() {
+        List<SeatHold> due = new ArrayList<>();
+        synchronized (tickLock) {
+            long tick = ++currentTick;
+            Iterator<SeatHold> it = buckets[(int) (tick & mask)].iterator();
+            while (it.hasNext()) {
+                SeatHold hold = it.next();
+                if (hold.getStatus() != HoldStatus.HELD) {
+                    it.remove();
+                } else if (hold.deadlineTick <= tick) {
+                    it.remove();
+                    due.add(hold);
+                }
+                // otherwise the deadline is one or more wheel rotations away
+            }
+        }
+        for (SeatHold hold : due) {
+            hold.expire();
+        }
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
 class Booking {
     User user;
     Show show;
-    int seatNumber;
+    int[] seatNumbers;
+    SeatHold hold;
 
     public Booking(User user, Show show, int seatNumber) {
+        this(user, show, new int[] { seatNumber });
+    }
+
+    public Booking(User user, Show show, int[] seatNumbers) {
         this.user = user;
         this.show = show;
-        this.seatNumber = seatNumber;
+        this.seatNumbers = seatNumbers;
+    }
+
+    public Booking(SeatHold hold) {
+        this(hold.user, hold.show, hold.seatNumbers);
+        this.hold = hold;
     }
 
-    public void confirmBooking() {
-        if (show.bookSeat(seatNumber)) {
-            System.out.println("Booking Confirmed for " + user.userName + " - Seat " + seatNumber + " for movie " + show.movie.movieName);
+    // Books (or confirms the hold) without console output; true once the sale is final.
+    public boolean confirm() {
+        boolean confirmed = (hold != null) ? hold.confirm() : show.bookSeats(seatNumbers);
+        // A sale only counts once it is durable; if the journal cannot take it, give the seats back.
+        if (confirmed && show.journal != null && !show.journal.recordBooking(show, seatNumbers)) {
+            show.releaseSeats(seatNumbers);
+            confirmed = false;
+        }
+        return confirmed;
+    }
+
+    public boolean confirmBooking() {
+        boolean confirmed = confirm();
+        if (confirmed) {
+            System.out.println("Booking Confirmed for " + user.userName + " - Seats " + Arrays.toString(seatNumbers) + " for movie " + show.movie.movieName);
         } else {
-            System.out.println("Seat " + seatNumber + " is already booked or invalid.");
+            System.out.println("Seats " + Arrays.toString(seatNumbers) + " are already booked, invalid or the hold has expired.");
+        }
+        return confirmed;
+    }
+}
+// Inverted index city -> movie -> ids of its scheduled shows, kept current by schedule events.
+// Show ids make repeated events harmless, and movies are listed in the order a city first got them.
+class CityMovieIndex implements ShowScheduleListener {
+    static final class MovieShows {
+        final Movie movie;
+        final Set<Integer> showIds = new HashSet<>();
+
+        MovieShows(Movie movie) {
+            this.movie = movie;
+        }
+    }
+
+    // Each city's map is only touched while holding it.
+    private final Map<String, LinkedHashMap<Integer, MovieShows>> moviesByCity = new ConcurrentHashMap<>();
+
+    static String normalize(String cityName) {
+        return cityName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void onShowAdded(Location location, Theatre theatre, Show show) {
+        LinkedHashMap<Integer, MovieShows> movies =
+                moviesByCity.computeIfAbsent(normalize(location.cityName), city -> new LinkedHashMap<>());
+        synchronized (movies) {
+            movies.computeIfAbsent(show.movie.movieId, id -> new MovieShows(show.movie)).showIds.add(show.showId);
+        }
+    }
+
+    @Override
+    public void onShowRemoved(Location location, Theatre theatre, Show show) {
+        LinkedHashMap<Integer, MovieShows> movies = moviesByCity.get(normalize(location.cityName));
+        if (movies == null) {
+            return;
+        }
+        synchronized (movies) {
+            MovieShows entry = movies.get(show.movie.movieId);
+            if (entry != null && entry.showIds.remove(show.showId) && entry.showIds.isEmpty()) {
+                movies.remove(show.movie.movieId);
+            }
+        }
+    }
+
+    public List<Movie> getMovies(String cityName) {
+        LinkedHashMap<Integer, MovieShows> movies = moviesByCity.get(normalize(cityName));
+        if (movies == null) {
+            return new ArrayList<>();
+        }
+        synchronized (movies) {
+            List<Movie> result = new ArrayList<>(movies.size());
+            for (MovieShows entry : movies.values()) {
+                result.add(entry.movie);
+            }
+            return result;
+        }
+    }
+
+    public int getShowCount(String cityName, int movieId) {
+        LinkedHashMap<Integer, MovieShows> movies = moviesByCity.get(normalize(cityName));
+        if (movies == null) {
+            return 0;
+        }
+        synchronized (movies) {
+            MovieShows entry = movies.get(movieId);
+            return (entry == null) ? 0 : entry.showIds.size();
         }
     }
 }
+// Shows ordered by start time, per city, per city+movie and per theatre, so "what starts between
+// t1 and t2" is a range scan. Keys pack (startTime, showId) into a long to keep them unique.
+class ShowTimeIndex implements ShowScheduleListener {
+    private final Map<String, ConcurrentSkipListMap<Long, Show>> showsByCity = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, ConcurrentSkipListMap<Long, Show>>> showsByCityAndMovie = new ConcurrentHashMap<>();
+    private final Map<Theatre, ConcurrentSkipListMap<Long, Show>> showsByTheatre = new ConcurrentHashMap<>();
+
+    static long key(int startTime, int showId) {
+        return ((long) startTime << 32) | (showId & 0xffffffffL);
+    }
+
+    @Override
+    public void onShowAdded(Location location, Theatre theatre, Show show) {
+        String city = CityMovieIndex.normalize(location.cityName);
+        long key = key(show.showStartTime, show.showId);
+        showsByCity.computeIfAbsent(city, c -> new ConcurrentSkipListMap<>()).put(key, show);
+        showsByCityAndMovie.computeIfAbsent(city, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(show.movie.movieId, id -> new ConcurrentSkipListMap<>()).put(key, show);
+        showsByTheatre.computeIfAbsent(theatre, t -> new ConcurrentSkipListMap<>()).put(key, show);
+    }
+
+    @Override
+    public void onShowRemoved(Location location, Theatre theatre, Show show) {
+        String city = CityMovieIndex.normalize(location.cityName);
+        long key = key(show.showStartTime, show.showId);
+        remove(showsByCity.get(city), key);
+        Map<Integer, ConcurrentSkipListMap<Long, Show>> byMovie = showsByCityAndMovie.get(city);
+        if (byMovie != null) {
+            remove(byMovie.get(show.movie.movieId), key);
+        }
+        remove(showsByTheatre.get(theatre), key);
+    }
+
+    private static void remove(ConcurrentSkipListMap<Long, Show> shows, long key) {
+        if (shows != null) {
+            shows.remove(key);
+        }
+    }
+
+    // Start times are inclusive on both ends.
+    private static List<Show> range(ConcurrentSkipListMap<Long, Show> shows, int fromTime, int toTime) {
+        if (shows == null || fromTime > toTime) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(shows.subMap(key(fromTime, 0), true, key(toTime, -1), true).values());
+    }
+
+    public List<Show> getShowsInCity(String cityName, int fromTime, int toTime) {
+        return range(showsByCity.get(CityMovieIndex.normalize(cityName)), fromTime, toTime);
+    }
+
+    public List<Show> getShowsOfMovieInCity(String cityName, int movieId, int fromTime, int toTime) {
+        Map<Integer, ConcurrentSkipListMap<Long, Show>> byMovie = showsByCityAndMovie.get(CityMovieIndex.normalize(cityName));
+        return range(byMovie == null ? null : byMovie.get(movieId), fromTime, toTime);
+    }
+
+    public List<Show> getShowsInTheatre(Theatre theatre, int fromTime, int toTime) {
+        return range(showsByTheatre.get(theatre), fromTime, toTime);
+    }
+}
 class MovieController {
     List<Location> locations;
+    CityMovieIndex cityMovieIndex;
+    ShowTimeIndex showTimeIndex;
 
     public MovieController(List<Location> locations) {
         this.locations = locations;
+        this.cityMovieIndex = new CityMovieIndex();
+        this.showTimeIndex = new ShowTimeIndex();
+        for (Location location : locations) {
+            location.addScheduleListener(cityMovieIndex);
+            location.addScheduleListener(showTimeIndex);
+        }
     }
 
-    public List<Movie> getMoviesByCity(String cityName) {
-        Set<Integer> movieIds = new HashSet<>();
-        List<Movie> moviesInCity = new ArrayList<>();
+    public List<Show> getShows(String cityName, Movie movie, int fromTime, int toTime) {
+        return showTimeIndex.getShowsOfMovieInCity(cityName, movie.movieId, fromTime, toTime);
+    }
 
-        for (Location location : locations) {
-            if (location.cityName.equalsIgnoreCase(cityName)) {
-                for (Theatre theatre : location.cinemaHalls) {
-                    for (Screen screen : theatre.screens) {
-                        for (Show show : screen.shows) {
-                            if (!movieIds.contains(show.movie.movieId)) {
-                                movieIds.add(show.movie.movieId);
-                                moviesInCity.add(show.movie);
-                            }
-                        }
-                    }
-                }
-            }
-        }
+    public List<Movie> getMoviesByCity(String cityName) {
+        return cityMovieIndex.getMovies(cityName);
+    }
 
-        return moviesInCity;
+    public int getShowCount(String cityName, Movie movie) {
+        return cityMovieIndex.getShowCount(cityName, movie.movieId);
     }
 }
 
@@ -157,10 +957,10 @@ public class BookMyShow {
         Location delhi = new Location("Delhi", "110001");
 
         Theatre pvrMumbai = new Theatre("PVR Juhu", mumbai);
-        mumbai.cinemaHalls.add(pvrMumbai);
+        mumbai.addTheatre(pvrMumbai);
 
         Theatre inoxDelhi = new Theatre("INOX CP", delhi);
-        delhi.cinemaHalls.add(inoxDelhi);
+        delhi.addTheatre(inoxDelhi);
 
         Movie inception = new Movie(1, "Inception", "PG-13", 148);
         Movie avengers = new Movie(2, "Avengers", "PG-13", 143);
@@ -171,11 +971,11 @@ public class BookMyShow {
         Show show1 = new Show(101, inception, 1800, screen1, 10);
         Show show2 = new Show(102, avengers, 2000, screen2, 8);
 
-        screen1.shows.add(show1);
-        screen2.shows.add(show2);
+        screen1.addShow(show1);
+        screen2.addShow(show2);
 
-        pvrMumbai.screens.add(screen1);
-        inoxDelhi.screens.add(screen2);
+        pvrMumbai.addScreen(screen1);
+        inoxDelhi.addScreen(screen2);
 
         // Movie Controller
         List<Location> allLocations = Arrays.asList(mumbai, delhi);
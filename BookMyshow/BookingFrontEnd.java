@@ -0,0 +1,359 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Caps the requests doing work at once and the requests allowed to wait for a slot.
+// tryAdmit never blocks, so it runs on the server's dispatcher thread before a request is handed
+// to a worker: anything past both limits is turned away there instead of queueing without bound.
+// An admitted request then waits at most maxWaitMillis for a slot to do its work in.
+class AdmissionController {
+    private final int capacity;
+    private final Semaphore admitted;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final long maxWaitMillis;
+    final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionController(int maxInFlight, int maxWaiting, long maxWaitMillis) {
+        this.capacity = maxInFlight + maxWaiting;
+        this.admitted = new Semaphore(capacity);
+        this.permits = new Semaphore(maxInFlight);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    // Every true must be matched by one leave().
+    public boolean tryAdmit() {
+        if (admitted.tryAcquire()) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    // On the worker, for an admitted request; every true must be matched by one release().
+    public boolean awaitTurn() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        waiting.incrementAndGet();
+        try {
+            if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            rejected.incrementAndGet();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public void leave() {
+        admitted.release();
+    }
+
+    public int waiting() {
+        return waiting.get();
+    }
+
+    // Most requests admitted at once, running or waiting.
+    public int capacity() {
+        return capacity;
+    }
+}
+
+// Keeps showId -> Show current from the same schedule events the indexes use.
+class ShowRegistry implements ShowScheduleListener {
+    private final Map<Integer, Show> showsById = new ConcurrentHashMap<>();
+
+    @Override
+    public void onShowAdded(Location location, Theatre theatre, Show show) {
+        showsById.put(show.showId, show);
+    }
+
+    @Override
+    public void onShowRemoved(Location location, Theatre theatre, Show show) {
+        showsById.remove(show.showId, show);
+    }
+
+    public Show get(int showId) {
+        return showsById.get(showId);
+    }
+}
+
+// HTTP front end over MovieController and Show booking.
+//   GET  /movies?city=Mumbai
+//   POST /book?show=101&seats=4,5,6&user=42   -> 200 booked, 409 taken, 503 + Retry-After when shedding load, 405 if not POST
+//   GET  /stats
+// Each exchange is admitted on the dispatcher thread, then runs on its own virtual thread where the
+// JDK has them (21+), otherwise on a fixed platform pool with a bounded queue. One that is not
+// admitted is answered 503 on the spot, since the JDK server would just drop a rejected task's connection.
+class BookingFrontEnd {
+    private final MovieController movieController;
+    private final ShowRegistry shows = new ShowRegistry();
+    private final AdmissionController admission;
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+    private final ExecutorService executor;
+    // set while a request that was not admitted runs, so the handler sheds it
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+    private HttpServer server;
+
+    public BookingFrontEnd(MovieController movieController, AdmissionController admission) {
+        this.movieController = movieController;
+        this.admission = admission;
+        for (Location location : movieController.locations) {
+            location.addScheduleListener(shows);
+        }
+        this.executor = newRequestExecutor(admission.capacity());
+    }
+
+    static ExecutorService newRequestExecutor(int maxQueued) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadPoolExecutor(256, 256, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued));
+        }
+    }
+
+    // The server's executor: admits the exchange before any worker sees it.
+    private void dispatch(Runnable exchange) {
+        if (!admission.tryAdmit()) {
+            shed(exchange);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    boolean turn;
+                    try {
+                        turn = admission.awaitTurn();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        turn = false;
+                    }
+                    if (!turn) {
+                        shed(exchange);
+                        return;
+                    }
+                    try {
+                        exchange.run();
+                    } finally {
+                        admission.release();
+                    }
+                } finally {
+                    admission.leave();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.leave();
+            shed(exchange);
+        }
+    }
+
+    // Runs the exchange on this thread with its handler reduced to a 503.
+    private static void shed(Runnable exchange) {
+        SHEDDING.set(true);
+        try {
+            exchange.run();
+        } finally {
+            SHEDDING.set(false);
+        }
+    }
+
+    private void handle(String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            if (SHEDDING.get()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "busy");
+            } else {
+                handler.handle(exchange);
+            }
+        });
+    }
+
+    // For small responses, run with -Dsun.net.httpserver.nodelay=true (main sets it); otherwise they
+    // sit behind Nagle + delayed ACK for ~40ms. It is JVM-wide, so it is left to the process to decide.
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 4096);
+        handle("/movies", this::handleMovies);
+        handle("/book", this::handleBook);
+        handle("/stats", this::handleStats);
+        server.setExecutor(this::dispatch);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleMovies(HttpExchange exchange) throws IOException {
+        String city = query(exchange).get("city");
+        if (city == null) {
+            respond(exchange, 400, "missing city");
+            return;
+        }
+        StringBuilder body = new StringBuilder();
+        for (Movie movie : movieController.getMoviesByCity(city)) {
+            body.append(movie.movieId).append(',').append(movie.movieName).append('\n');
+        }
+        respond(exchange, 200, body.toString());
+    }
+
+    private void handleBook(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            respond(exchange, 405, "method not allowed");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, String> params = query(exchange);
+            Show show;
+            int[] seatNumbers;
+            int userId;
+            try {
+                show = shows.get(Integer.parseInt(params.getOrDefault("show", "")));
+                seatNumbers = Arrays.stream(params.getOrDefault("seats", "").split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+                userId = Integer.parseInt(params.getOrDefault("user", "0"));
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, "bad request");
+                return;
+            }
+            if (show == null) {
+                respond(exchange, 404, "unknown show");
+                return;
+            }
+            if (new Booking(new User(userId, "user-" + userId), show, seatNumbers).confirm()) {
+                booked.incrementAndGet();
+                respond(exchange, 200, "booked");
+            } else {
+                unavailable.incrementAndGet();
+                respond(exchange, 409, "unavailable");
+            }
+        } finally {
+            serviceTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "booked=" + booked.get() + " unavailable=" + unavailable.get()
+                + " rejected=" + admission.rejected.get() + " waiting=" + admission.waiting()
+                + " p50us=" + serviceTimes.percentile(50) / 1000 + " p99us=" + serviceTimes.percentile(99) / 1000 + "\n");
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Usage: java BookingFrontEnd [sessions] [seconds] [maxInFlight]
+    // Starts the server on a demo catalogue and drives it with concurrent booking sessions,
+    // each one sending its next request as soon as the previous answer arrives.
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        int showCount = 100;
+        // read once when the JDK server classes load, so it has to be set before the first server starts
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        Location city = new Location("Mumbai", "400001");
+        Theatre theatre = new Theatre("PVR Juhu", city);
+        city.addTheatre(theatre);
+        Movie movie = new Movie(1, "Inception", "PG-13", 148);
+        for (int i = 0; i < showCount; i++) {
+            Screen screen = new Screen("Screen " + i);
+            theatre.addScreen(screen);
+            screen.addShow(new Show(i, movie, 1800, screen, 40, 50));
+        }
+        MovieController controller = new MovieController(Arrays.asList(city));
+        BookingFrontEnd frontEnd = new BookingFrontEnd(controller, new AdmissionController(maxInFlight, maxInFlight * 4, 200));
+        int port = frontEnd.start(0);
+        System.out.println("Booking front end on http://127.0.0.1:" + port + ", " + sessions + " sessions for " + seconds + "s");
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(newRequestExecutor(sessions * 2))
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        LatencyHistogram clientLatency = new LatencyHistogram();
+        Map<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<>();
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch finished = new CountDownLatch(sessions);
+        for (int s = 0; s < sessions; s++) {
+            runSession(client, port, s, showCount, deadline, clientLatency, statusCounts, errors, finished);
+        }
+        finished.await();
+
+        long total = clientLatency.totalCount();
+        System.out.printf("requests=%d (%.0f/s) errors=%d statuses=%s%n",
+                total, total / (double) seconds, errors.get(), new TreeMap<>(statusCounts));
+        System.out.printf("client latency p50=%dus p99=%dus p99.9=%dus%n",
+                clientLatency.percentile(50) / 1000, clientLatency.percentile(99) / 1000, clientLatency.percentile(99.9) / 1000);
+        HttpResponse<String> stats = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/stats")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        System.out.print("server " + stats.body());
+        frontEnd.stop();
+        System.exit(0);
+    }
+
+    private static void runSession(HttpClient client, int port, int session, int showCount, long deadline,
+            LatencyHistogram latency, Map<Integer, AtomicLong> statusCounts, AtomicLong errors, CountDownLatch finished) {
+        if (System.nanoTime() >= deadline) {
+            finished.countDown();
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int seat = 1 + random.nextInt(1999);
+        URI uri = URI.create("http://127.0.0.1:" + port + "/book?show=" + random.nextInt(showCount)
+                + "&seats=" + seat + "," + (seat + 1) + "&user=" + session);
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30)).build();
+        long start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            latency.record(System.nanoTime() - start);
+            if (error != null) {
+                errors.incrementAndGet();
+            } else {
+                statusCounts.computeIfAbsent(response.statusCode(), code -> new AtomicLong()).incrementAndGet();
+            }
+            runSession(client, port, session, showCount, deadline, latency, statusCounts, errors, finished);
+        });
+    }
+}
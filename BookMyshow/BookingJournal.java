@@ -0,0 +1,277 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped journal of confirmed bookings plus a snapshot of everything sold.
+//
+// Journal file: [magic][generation] then records of
+//   [length][generation][showId][seatCount][seat...][crc32]
+// A record only counts if its generation matches the header and its CRC checks out, so a torn
+// tail or leftovers from before the last snapshot are ignored on recovery.
+//
+// Startup: open the journal, register every Show, then call recover().
+class BookingJournal implements Closeable {
+    private static final int MAGIC = 0x424d534a; // "BMSJ"
+    private static final int HEADER_BYTES = 8;
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<Integer, Show> showsById = new HashMap<>();
+    // Durable view of sold seats per show; this, not the live bitmap, is what gets snapshotted,
+    // since the bitmap also contains seats that are only held.
+    private final Map<Integer, BitSet> soldSeats = new HashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private int generation;
+    private int position;
+    private long appendedSeq;
+
+    // Group commit: one waiter forces the mapping, everyone whose record it covered returns.
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+    private boolean flushing;
+    private long durableSeq;
+
+    public BookingJournal(Path directory, int capacityBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.journalPath = directory.resolve("bookings.journal");
+        this.snapshotPath = directory.resolve("bookings.snapshot");
+        this.channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, 0);
+        }
+        this.generation = buffer.getInt(4);
+        this.position = HEADER_BYTES;
+    }
+
+    public void register(Show show) {
+        appendLock.lock();
+        try {
+            showsById.put(show.showId, show);
+            soldSeats.computeIfAbsent(show.showId, id -> new BitSet());
+            show.journal = this;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Rebuilds seat state of the registered shows from the snapshot plus the journal tail.
+    // Returns the number of journal records replayed.
+    public int recover() throws IOException {
+        appendLock.lock();
+        try {
+            int snapshotGeneration = loadSnapshot();
+            int replayed = 0;
+            position = HEADER_BYTES;
+            if (generation == snapshotGeneration) {
+                int[] seats = new int[16];
+                while (true) {
+                    int start = position;
+                    if (start + 20 > buffer.capacity()) {
+                        break;
+                    }
+                    int length = buffer.getInt(start);
+                    if (length < 20 || start + length > buffer.capacity() || buffer.getInt(start + 4) != generation
+                            || buffer.getInt(start + length - 4) != checksum(start, length - 4)) {
+                        break;
+                    }
+                    int showId = buffer.getInt(start + 8);
+                    int seatCount = buffer.getInt(start + 12);
+                    if (seats.length < seatCount) {
+                        seats = new int[seatCount];
+                    }
+                    for (int i = 0; i < seatCount; i++) {
+                        seats[i] = buffer.getInt(start + 16 + 4 * i);
+                    }
+                    markSold(showId, seats, seatCount);
+                    position = start + length;
+                    replayed++;
+                }
+            } else {
+                // The snapshot is newer than the journal, so it already contains every record in it.
+                generation = snapshotGeneration;
+                resetJournal();
+            }
+            for (Map.Entry<Integer, BitSet> entry : soldSeats.entrySet()) {
+                Show show = showsById.get(entry.getKey());
+                if (show == null) {
+                    continue;
+                }
+                BitSet sold = entry.getValue();
+                for (int seat = sold.nextSetBit(0); seat >= 0; seat = sold.nextSetBit(seat + 1)) {
+                    show.bookSeat(seat);
+                }
+            }
+            return replayed;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Appends the booking and blocks until it is on disk. False if the journal could not take it.
+    public boolean recordBooking(Show show, int[] seatNumbers) {
+        int length = 20 + 4 * seatNumbers.length;
+        long seq;
+        appendLock.lock();
+        try {
+            if (position + length > buffer.capacity()) {
+                snapshot();
+                if (position + length > buffer.capacity()) {
+                    return false;
+                }
+            }
+            int start = position;
+            buffer.putInt(start, length);
+            buffer.putInt(start + 4, generation);
+            buffer.putInt(start + 8, show.showId);
+            buffer.putInt(start + 12, seatNumbers.length);
+            for (int i = 0; i < seatNumbers.length; i++) {
+                buffer.putInt(start + 16 + 4 * i, seatNumbers[i]);
+            }
+            buffer.putInt(start + length - 4, checksum(start, length - 4));
+            position = start + length;
+            markSold(show.showId, seatNumbers, seatNumbers.length);
+            seq = ++appendedSeq;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            appendLock.unlock();
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    private void awaitDurable(long seq) {
+        flushLock.lock();
+        try {
+            while (durableSeq < seq) {
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                flushLock.unlock();
+                long target;
+                try {
+                    appendLock.lock();
+                    try {
+                        target = appendedSeq;
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    buffer.force();
+                } finally {
+                    flushLock.lock();
+                    flushing = false;
+                }
+                durableSeq = Math.max(durableSeq, target);
+                flushed.signalAll();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Writes the sold-seat state to a new snapshot, then starts an empty journal generation.
+    public void snapshot() throws IOException {
+        appendLock.lock();
+        try {
+            int nextGeneration = generation + 1;
+            Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeInt(nextGeneration);
+                out.writeInt(soldSeats.size());
+                for (Map.Entry<Integer, BitSet> entry : soldSeats.entrySet()) {
+                    long[] words = entry.getValue().toLongArray();
+                    out.writeInt(entry.getKey());
+                    out.writeInt(words.length);
+                    for (long word : words) {
+                        out.writeLong(word);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generation = nextGeneration;
+            resetJournal();
+            flushLock.lock();
+            try {
+                durableSeq = Math.max(durableSeq, appendedSeq);
+                flushed.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private int loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a booking snapshot: " + snapshotPath);
+            }
+            int snapshotGeneration = in.readInt();
+            int shows = in.readInt();
+            for (int s = 0; s < shows; s++) {
+                int showId = in.readInt();
+                long[] words = new long[in.readInt()];
+                for (int w = 0; w < words.length; w++) {
+                    words[w] = in.readLong();
+                }
+                soldSeats.computeIfAbsent(showId, id -> new BitSet()).or(BitSet.valueOf(words));
+            }
+            return snapshotGeneration;
+        }
+    }
+
+    private void resetJournal() {
+        buffer.putInt(4, generation);
+        buffer.putInt(HEADER_BYTES, 0);
+        buffer.force();
+        position = HEADER_BYTES;
+    }
+
+    private void markSold(int showId, int[] seats, int count) {
+        BitSet sold = soldSeats.computeIfAbsent(showId, id -> new BitSet());
+        for (int i = 0; i < count; i++) {
+            sold.set(seats[i]);
+        }
+    }
+
+    private int checksum(int start, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start).limit(start + length);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+}
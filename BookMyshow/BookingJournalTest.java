@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Books random seats through a BookingJournal, then recovers into fresh Shows and checks that every
+// seat map matches what was confirmed:
+// - plain replay of the journal;
+// - a journal small enough to roll over into new generations through automatic snapshots;
+// - a crash between writing a snapshot and resetting the journal (old journal, newer snapshot);
+// - a torn last record, whose CRC must reject it and only it.
+// Finally prints how long recovery of a full journal takes.
+// Usage: java BookingJournalTest [shows] [seatsPerShow] [bookings]
+public class BookingJournalTest {
+    static final List<String> failures = new ArrayList<>();
+
+    static List<Show> newShows(int count, int seats) {
+        Movie movie = new Movie(1, "Journal", "U", 120);
+        List<Show> shows = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            shows.add(new Show(i, movie, 1800, new Screen("Screen " + i), seats));
+        }
+        return shows;
+    }
+
+    static BookingJournal open(Path directory, int capacityBytes, List<Show> shows) throws IOException {
+        BookingJournal journal = new BookingJournal(directory, capacityBytes);
+        for (Show show : shows) {
+            journal.register(show);
+        }
+        return journal;
+    }
+
+    // Books up to 'bookings' random blocks of one to four seats; what was confirmed goes into 'sold'.
+    static void book(List<Show> shows, Map<Integer, BitSet> sold, int bookings, Random random) {
+        User user = new User(1, "journal");
+        for (int b = 0; b < bookings; b++) {
+            Show show = shows.get(random.nextInt(shows.size()));
+            int count = 1 + random.nextInt(4);
+            int first = 1 + random.nextInt(show.seatMap.capacity() - count + 1);
+            int[] seatNumbers = new int[count];
+            for (int i = 0; i < count; i++) {
+                seatNumbers[i] = first + i;
+            }
+            if (new Booking(user, show, seatNumbers).confirm()) {
+                BitSet seats = sold.computeIfAbsent(show.showId, id -> new BitSet());
+                for (int seatNumber : seatNumbers) {
+                    seats.set(seatNumber);
+                }
+            }
+        }
+    }
+
+    // Recovers into fresh shows and compares every seat with the expected sold set.
+    static int recoverAndCompare(String scenario, Path directory, int capacityBytes, int showCount, int seats,
+                                 Map<Integer, BitSet> sold) throws IOException {
+        List<Show> recovered = newShows(showCount, seats);
+        int replayed;
+        try (BookingJournal journal = open(directory, capacityBytes, recovered)) {
+            replayed = journal.recover();
+        }
+        int mismatches = 0;
+        for (Show show : recovered) {
+            BitSet expected = sold.getOrDefault(show.showId, new BitSet());
+            for (int seatNumber = 1; seatNumber <= seats; seatNumber++) {
+                if (show.isSeatAvailable(seatNumber) == expected.get(seatNumber)) {
+                    mismatches++;
+                }
+            }
+        }
+        if (mismatches > 0) {
+            failures.add(scenario + ": " + mismatches + " seats differ after recovery");
+        }
+        System.out.printf("%-28s: %,6d records replayed, %,d seats differ%n", scenario, replayed, mismatches);
+        return replayed;
+    }
+
+    // Offset of the last record of the journal's current generation, walking the same layout recovery reads.
+    static int lastRecordOffset(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve("bookings.journal"), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int generation = buffer.getInt(4);
+            int position = 8;
+            int last = -1;
+            while (position + 20 <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length < 20 || position + length > buffer.capacity() || buffer.getInt(position + 4) != generation) {
+                    break;
+                }
+                last = position;
+                position += length;
+            }
+            return last;
+        }
+    }
+
+    static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int showCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int seats = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int bookings = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        Random random = new Random(6);
+        Path root = Files.createTempDirectory("booking-journal-test");
+
+        // Replay: everything fits in one generation.
+        Path replayDir = root.resolve("replay");
+        Map<Integer, BitSet> sold = new HashMap<>();
+        int bigJournal = 4 << 20;
+        List<Show> shows = newShows(showCount, seats);
+        try (BookingJournal journal = open(replayDir, bigJournal, shows)) {
+            journal.recover();
+            book(shows, sold, bookings, random);
+        }
+        recoverAndCompare("replay", replayDir, bigJournal, showCount, seats, sold);
+
+        // Rollover: a 4 KB journal fills every ~150 bookings and snapshots itself into a new generation.
+        Path rolloverDir = root.resolve("rollover");
+        Map<Integer, BitSet> rolled = new HashMap<>();
+        int smallJournal = 4 << 10;
+        List<Show> rolloverShows = newShows(showCount, seats);
+        try (BookingJournal journal = open(rolloverDir, smallJournal, rolloverShows)) {
+            journal.recover();
+            book(rolloverShows, rolled, bookings, random);
+        }
+        int generation;
+        try (FileChannel channel = FileChannel.open(rolloverDir.resolve("bookings.journal"), StandardOpenOption.READ)) {
+            generation = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8).getInt(4);
+        }
+        if (generation < 2) {
+            failures.add("rollover: journal still at generation " + generation + ", expected several snapshots");
+        }
+        System.out.printf("%-28s: journal at generation %d%n", "rollover", generation);
+        recoverAndCompare("rollover", rolloverDir, smallJournal, showCount, seats, rolled);
+
+        // Crash after the snapshot was moved into place but before the journal was reset: the old
+        // generation's records are all in the snapshot and must not be replayed on top of it.
+        Path journalFile = rolloverDir.resolve("bookings.journal");
+        Path beforeSnapshot = root.resolve("journal-before-snapshot");
+        List<Show> reopened = newShows(showCount, seats);
+        try (BookingJournal journal = open(rolloverDir, smallJournal, reopened)) {
+            journal.recover();
+            book(reopened, rolled, 50, random);
+            Files.copy(journalFile, beforeSnapshot);
+            journal.snapshot();
+        }
+        Files.copy(beforeSnapshot, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        int replayed = recoverAndCompare("snapshot newer than journal", rolloverDir, smallJournal, showCount, seats, rolled);
+        if (replayed != 0) {
+            failures.add("snapshot newer than journal: replayed " + replayed + " records of an older generation");
+        }
+
+        // Torn tail: the last booking's record is half written, so its CRC fails and it is dropped.
+        Path tornDir = root.resolve("torn");
+        Map<Integer, BitSet> beforeTear = new HashMap<>();
+        List<Show> tornShows = newShows(showCount, seats);
+        int[] lastSeats = { seats - 1, seats };
+        try (BookingJournal journal = open(tornDir, bigJournal, tornShows)) {
+            journal.recover();
+            book(tornShows, beforeTear, bookings / 10, random);
+            Show last = tornShows.get(0);
+            if (last.isSeatAvailable(lastSeats[0]) && last.isSeatAvailable(lastSeats[1])) {
+                new Booking(new User(2, "torn"), last, lastSeats).confirm();
+            } else {
+                failures.add("torn tail: seats for the last booking were already sold");
+            }
+        }
+        int tail = lastRecordOffset(tornDir);
+        try (FileChannel channel = FileChannel.open(tornDir.resolve("bookings.journal"), StandardOpenOption.WRITE)) {
+            // zero the second seat and the CRC, as if the write stopped halfway through the record
+            channel.write(ByteBuffer.allocate(8), tail + 20);
+        }
+        int tornReplayed = recoverAndCompare("torn tail", tornDir, bigJournal, showCount, seats, beforeTear);
+        System.out.printf("%-28s: record at offset %,d rejected, %,d before it kept%n", "torn tail", tail, tornReplayed);
+
+        // Recovery time of a full single-generation journal.
+        Path timedDir = root.resolve("timed");
+        int timedBookings = bookings * 10;
+        List<Show> timedShows = newShows(showCount, seats * 10);
+        Map<Integer, BitSet> timedSold = new HashMap<>();
+        try (BookingJournal journal = open(timedDir, 16 << 20, timedShows)) {
+            journal.recover();
+            book(timedShows, timedSold, timedBookings, random);
+        }
+        for (int round = 0; round < 3; round++) {
+            List<Show> fresh = newShows(showCount, seats * 10);
+            long start = System.nanoTime();
+            int records;
+            try (BookingJournal journal = open(timedDir, 16 << 20, fresh)) {
+                records = journal.recover();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("round %d recovery: %,d records in %,.1f ms (%,.0f records/s)%n",
+                    round, records, nanos / 1e6, records * 1e9 / nanos);
+        }
+
+        deleteTree(replayDir);
+        deleteTree(rolloverDir);
+        deleteTree(tornDir);
+        deleteTree(timedDir);
+        Files.delete(beforeSnapshot);
+        Files.delete(root);
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: recovered seat maps match the confirmed bookings");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
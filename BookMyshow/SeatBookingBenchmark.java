@@ -0,0 +1,239 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Contention benchmark for the seat booking models.
+// Usage: java SeatBookingBenchmark [seats] [warmupMillis] [measureMillis]
+// Every op books a seat and, if it won, releases it again so the run never sells out.
+
+interface SeatBookingModel {
+    boolean book(int seatNumber);
+
+    void release(int seatNumber);
+}
+
+// The original design: one monitor per show and a linear scan for the seat.
+class CoarseMonitorModel implements SeatBookingModel {
+    private final int[] seatNumbers;
+    private final boolean[] available;
+
+    public CoarseMonitorModel(int totalSeats) {
+        seatNumbers = new int[totalSeats];
+        available = new boolean[totalSeats];
+        for (int i = 0; i < totalSeats; i++) {
+            seatNumbers[i] = i + 1;
+            available[i] = true;
+        }
+    }
+
+    public synchronized boolean book(int seatNumber) {
+        for (int i = 0; i < seatNumbers.length; i++) {
+            if (seatNumbers[i] == seatNumber && available[i]) {
+                available[i] = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void release(int seatNumber) {
+        available[seatNumber - 1] = true;
+    }
+}
+
+// The commented-out alternative in BookMyShow.java: a lock per Seat, still found by linear scan.
+class PerSeatLockModel implements SeatBookingModel {
+    private final int[] seatNumbers;
+    private final boolean[] available;
+    private final Object[] locks;
+
+    public PerSeatLockModel(int totalSeats) {
+        seatNumbers = new int[totalSeats];
+        available = new boolean[totalSeats];
+        locks = new Object[totalSeats];
+        for (int i = 0; i < totalSeats; i++) {
+            seatNumbers[i] = i + 1;
+            available[i] = true;
+            locks[i] = new Object();
+        }
+    }
+
+    public boolean book(int seatNumber) {
+        for (int i = 0; i < seatNumbers.length; i++) {
+            if (seatNumbers[i] == seatNumber) {
+                synchronized (locks[i]) {
+                    if (!available[i]) {
+                        return false;
+                    }
+                    available[i] = false;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void release(int seatNumber) {
+        synchronized (locks[seatNumber - 1]) {
+            available[seatNumber - 1] = true;
+        }
+    }
+}
+
+// The current Show: CAS on the seat bitmap.
+class CasShowModel implements SeatBookingModel {
+    private final Show show;
+
+    public CasShowModel(int totalSeats) {
+        show = new Show(1, new Movie(1, "Bench", "U", 120), 1800, new Screen("Bench"), totalSeats);
+    }
+
+    public boolean book(int seatNumber) {
+        return show.bookSeat(seatNumber);
+    }
+
+    public void release(int seatNumber) {
+        show.releaseSeat(seatNumber);
+    }
+}
+
+// The full Booking.confirmBooking path on top of the CAS Show, console output discarded.
+class ConfirmBookingModel implements SeatBookingModel {
+    private final Show show;
+    private final User user = new User(1, "bench");
+
+    public ConfirmBookingModel(int totalSeats) {
+        show = new Show(1, new Movie(1, "Bench", "U", 120), 1800, new Screen("Bench"), totalSeats);
+    }
+
+    public boolean book(int seatNumber) {
+        return new Booking(user, show, seatNumber).confirmBooking();
+    }
+
+    public void release(int seatNumber) {
+        show.releaseSeat(seatNumber);
+    }
+}
+
+public class SeatBookingBenchmark {
+    static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+    static final String[] MODELS = { "coarse-monitor", "per-seat-lock", "cas-bitmap", "confirm-booking" };
+    static final String[] DISTRIBUTIONS = { "uniform", "hot-seat" };
+    // hot-seat: 90% of requests go to the 10 seats everyone wants
+    static final int HOT_SEATS = 10;
+
+    static SeatBookingModel newModel(String name, int seats) {
+        switch (name) {
+            case "coarse-monitor": return new CoarseMonitorModel(seats);
+            case "per-seat-lock": return new PerSeatLockModel(seats);
+            case "cas-bitmap": return new CasShowModel(seats);
+            case "confirm-booking": return new ConfirmBookingModel(seats);
+            default: throw new IllegalArgumentException("Unknown model: " + name);
+        }
+    }
+
+    static int nextSeat(ThreadLocalRandom random, boolean hot, int seats) {
+        if (hot && random.nextInt(10) != 0) {
+            return 1 + random.nextInt(Math.min(HOT_SEATS, seats));
+        }
+        return 1 + random.nextInt(seats);
+    }
+
+    static void run(String modelName, String distribution, int threads, int seats, long warmupMillis, long measureMillis)
+            throws InterruptedException {
+        SeatBookingModel model = newModel(modelName, seats);
+        boolean hot = distribution.equals("hot-seat");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyHistogram latencies = new LatencyHistogram();
+        long[] ops = new long[threads];
+        long[] wins = new long[threads];
+        long[] allocated = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        long[] window = new long[2];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                LatencyHistogram local = new LatencyHistogram();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < window[0]) {
+                    int seat = nextSeat(random, hot, seats);
+                    if (model.book(seat)) {
+                        model.release(seat);
+                    }
+                }
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long count = 0, won = 0;
+                long now;
+                while ((now = System.nanoTime()) < window[1]) {
+                    int seat = nextSeat(random, hot, seats);
+                    boolean booked = model.book(seat);
+                    local.record(System.nanoTime() - now);
+                    if (booked) {
+                        won++;
+                        model.release(seat);
+                    }
+                    count++;
+                }
+                allocated[id] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+                ops[id] = count;
+                wins[id] = won;
+                latencies.add(local);
+            }, "bench-" + t);
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        window[0] = begin + warmupMillis * 1_000_000L;
+        window[1] = window[0] + measureMillis * 1_000_000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long totalOps = 0, totalWins = 0, totalAllocated = 0;
+        for (int t = 0; t < threads; t++) {
+            totalOps += ops[t];
+            totalWins += wins[t];
+            totalAllocated += allocated[t];
+        }
+        double opsPerSec = totalOps * 1000.0 / measureMillis;
+        System.err.printf("%-16s %-9s %3d %14.0f %9.1f%% %10d %10d %10.1f%n",
+                modelName, distribution, threads, opsPerSec,
+                totalOps == 0 ? 0.0 : 100.0 * totalWins / totalOps,
+                latencies.percentile(50), latencies.percentile(99),
+                totalOps == 0 ? 0.0 : (double) totalAllocated / totalOps);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seats = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long warmupMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        long measureMillis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+        // confirmBooking prints per booking; results go to stderr so the booking chatter can be discarded
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            System.err.printf("%-16s %-9s %3s %14s %10s %10s %10s %10s%n",
+                    "model", "dist", "thr", "ops/s", "won", "p50(ns)", "p99(ns)", "B/op");
+            for (String distribution : DISTRIBUTIONS) {
+                for (String model : MODELS) {
+                    for (int threads : THREAD_COUNTS) {
+                        run(model, distribution, threads, seats, warmupMillis, measureMillis);
+                    }
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// What changed on a seat map between two versions. Deltas carry the seat's state, not a toggle,
+// so applying the same delta twice, or on top of a slightly newer snapshot, is harmless.
+class SeatDelta {
+    final long fromVersion;
+    final long toVersion;
+    // true when the watcher fell too far behind: bookedSeats is then the full booked set
+    final boolean fullResync;
+    final int[] bookedSeats;
+    final int[] freedSeats;
+
+    public SeatDelta(long fromVersion, long toVersion, boolean fullResync, int[] bookedSeats, int[] freedSeats) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.fullResync = fullResync;
+        this.bookedSeats = bookedSeats;
+        this.freedSeats = freedSeats;
+    }
+}
+
+// Per-show change feed. Every booked/freed seat gets the next version and lands in a ring of
+// recent changes; watchers read the ring from their last version, so publishing costs the same
+// for one viewer or ten thousand.
+// The feed may be created after seats were sold: version 1 stands for the seat map as it was then,
+// and a watcher starting from before it gets a full snapshot first.
+class SeatChangeFeed {
+    private static final int SEAT_BITS = 22;
+    static final long CREATED_VERSION = 1;
+
+    private final Show show;
+    private final AtomicLong version = new AtomicLong(CREATED_VERSION);
+    private final AtomicLongArray ring;
+    private final int mask;
+    private final List<SeatFeedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public SeatChangeFeed(Show show, int ringSize) {
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.show = show;
+        this.ring = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    public long currentVersion() {
+        return version.get();
+    }
+
+    // Called after the seat's bitmap CAS. The state is read after the version is taken, so the
+    // highest version for a seat always reflects every change made before it.
+    void publish(int seatNumber) {
+        long v = version.incrementAndGet();
+        long booked = show.isSeatAvailable(seatNumber) ? 0 : 1;
+        ring.set((int) (v & mask), (v << (SEAT_BITS + 1)) | ((long) seatNumber << 1) | booked);
+        for (SeatFeedSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    // Net changes after fromVersion, one entry per seat; null when there is nothing new.
+    public SeatDelta deltaSince(long fromVersion) {
+        long latest = version.get();
+        if (latest <= fromVersion) {
+            return null;
+        }
+        if (fromVersion < CREATED_VERSION || latest - fromVersion > ring.length()) {
+            return fullSnapshot();
+        }
+        long[] entries = new long[(int) (latest - fromVersion)];
+        int count = 0;
+        for (long v = fromVersion + 1; v <= latest; v++) {
+            long entry = ring.get((int) (v & mask));
+            long entryVersion = entry >>> (SEAT_BITS + 1);
+            if (entryVersion < v) {
+                break; // publisher has taken the version but not written it yet
+            }
+            if (entryVersion > v) {
+                return fullSnapshot(); // lapped by the ring while reading
+            }
+            entries[count++] = entry;
+        }
+        if (count == 0) {
+            return null;
+        }
+        BitSet seen = new BitSet();
+        int[] booked = new int[count];
+        int[] freed = new int[count];
+        int bookedCount = 0, freedCount = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int seatNumber = (int) (entries[i] >>> 1) & ((1 << SEAT_BITS) - 1);
+            if (seen.get(seatNumber)) {
+                continue;
+            }
+            seen.set(seatNumber);
+            if ((entries[i] & 1) != 0) {
+                booked[bookedCount++] = seatNumber;
+            } else {
+                freed[freedCount++] = seatNumber;
+            }
+        }
+        return new SeatDelta(fromVersion, fromVersion + count, false,
+                Arrays.copyOf(booked, bookedCount), Arrays.copyOf(freed, freedCount));
+    }
+
+    // Every seat booked as of the returned version. The version is read first, so the scan sees every
+    // change up to it; later changes it happens to catch are harmless, as they come again in the next delta.
+    public SeatDelta fullSnapshot() {
+        long v = version.get();
+        SeatMap seatMap = show.seatMap;
+        int capacity = seatMap.capacity();
+        int[] booked = new int[64];
+        int count = 0;
+        for (int w = 0; w << 6 < capacity; w++) {
+            long taken = ~seatMap.word(w);
+            int bitsInWord = Math.min(64, capacity - (w << 6));
+            if (bitsInWord < 64) {
+                taken &= (1L << bitsInWord) - 1;
+            }
+            while (taken != 0) {
+                if (count == booked.length) {
+                    booked = Arrays.copyOf(booked, count * 2);
+                }
+                booked[count++] = (w << 6) + Long.numberOfTrailingZeros(taken) + 1;
+                taken &= taken - 1;
+            }
+        }
+        return new SeatDelta(0, v, true, Arrays.copyOf(booked, count), new int[0]);
+    }
+
+    // Push-style watcher starting after fromVersion; 0 for a watcher with no seat state yet, whose
+    // first delivery is then a full snapshot.
+    // Bursts collapse into one delivery: a subscriber already scheduled is not scheduled again.
+    public SeatFeedSubscription subscribe(long fromVersion, Executor executor, SeatFeedListener listener) {
+        SeatFeedSubscription subscription = new SeatFeedSubscription(this, fromVersion, executor, listener);
+        subscriptions.add(subscription);
+        subscription.signal();
+        return subscription;
+    }
+
+    void unsubscribe(SeatFeedSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+}
+
+interface SeatFeedListener {
+    void onSeatDelta(SeatDelta delta);
+}
+
+class SeatFeedSubscription {
+    private final SeatChangeFeed feed;
+    private final Executor executor;
+    private final SeatFeedListener listener;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private long version;
+
+    public SeatFeedSubscription(SeatChangeFeed feed, long fromVersion, Executor executor, SeatFeedListener listener) {
+        this.feed = feed;
+        this.version = fromVersion;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    void signal() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private synchronized void drain() {
+        scheduled.set(false);
+        SeatDelta delta = feed.deltaSince(version);
+        if (delta != null) {
+            version = delta.toVersion;
+            listener.onSeatDelta(delta);
+        }
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public void cancel() {
+        feed.unsubscribe(this);
+    }
+}
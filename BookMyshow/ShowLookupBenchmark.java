@@ -0,0 +1,98 @@
+import java.util.*;
+
+// Compares the nested Location/Theatre/Screen/Show walk with ShowTimeIndex range scans.
+// Usage: java ShowLookupBenchmark [shows] [queries]
+public class ShowLookupBenchmark {
+    static final int CITIES = 50;
+    static final int THEATRES_PER_CITY = 20;
+    static final int SCREENS_PER_THEATRE = 5;
+    static final int MOVIES = 200;
+    static final int DAY_MINUTES = 24 * 60;
+
+    // What callers had to do before the index: walk everything and filter.
+    static List<Show> nestedLoop(List<Location> locations, String cityName, int movieId, int fromTime, int toTime) {
+        List<Show> result = new ArrayList<>();
+        for (Location location : locations) {
+            if (location.cityName.equalsIgnoreCase(cityName)) {
+                for (Theatre theatre : location.cinemaHalls) {
+                    for (Screen screen : theatre.screens) {
+                        for (Show show : screen.shows) {
+                            if (show.movie.movieId == movieId && show.showStartTime >= fromTime && show.showStartTime <= toTime) {
+                                result.add(show);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int totalShows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        Random random = new Random(42);
+
+        Movie[] movies = new Movie[MOVIES];
+        for (int m = 0; m < MOVIES; m++) {
+            movies[m] = new Movie(m, "Movie " + m, "U", 120);
+        }
+        List<Location> locations = new ArrayList<>();
+        List<Screen> screens = new ArrayList<>();
+        for (int c = 0; c < CITIES; c++) {
+            Location location = new Location("City" + c, String.valueOf(100000 + c));
+            locations.add(location);
+            for (int t = 0; t < THEATRES_PER_CITY; t++) {
+                Theatre theatre = new Theatre("Theatre " + c + "-" + t, location);
+                location.addTheatre(theatre);
+                for (int s = 0; s < SCREENS_PER_THEATRE; s++) {
+                    Screen screen = new Screen("Screen " + s);
+                    theatre.addScreen(screen);
+                    screens.add(screen);
+                }
+            }
+        }
+        MovieController controller = new MovieController(locations);
+        long buildStart = System.nanoTime();
+        for (int i = 0; i < totalShows; i++) {
+            Screen screen = screens.get(random.nextInt(screens.size()));
+            Movie movie = movies[random.nextInt(MOVIES)];
+            screen.addShow(new Show(i, movie, random.nextInt(DAY_MINUTES), screen, 10));
+        }
+        System.out.printf("Scheduled %d shows (indexes maintained) in %d ms%n",
+                totalShows, (System.nanoTime() - buildStart) / 1_000_000);
+
+        String[] cities = new String[queries];
+        int[] movieIds = new int[queries];
+        int[] fromTimes = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            cities[q] = "city" + random.nextInt(CITIES);
+            movieIds[q] = random.nextInt(MOVIES);
+            fromTimes[q] = random.nextInt(DAY_MINUTES);
+        }
+        int window = 3 * 60;
+
+        for (int round = 0; round < 3; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                found += nestedLoop(locations, cities[q], movieIds[q], fromTimes[q], fromTimes[q] + window).size();
+            }
+            long loopNanos = System.nanoTime() - start;
+
+            long indexed = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                indexed += controller.getShows(cities[q], new Movie(movieIds[q], null, null, 0),
+                        fromTimes[q], fromTimes[q] + window).size();
+            }
+            long indexNanos = System.nanoTime() - start;
+
+            if (found != indexed) {
+                throw new IllegalStateException("Index returned " + indexed + " shows, walk returned " + found);
+            }
+            System.out.printf("round %d: nested loop %8.1f us/query, index %6.2f us/query (%d shows matched)%n",
+                    round, loopNanos / 1000.0 / queries, indexNanos / 1000.0 / queries, found);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+enum WaitingStatus {
+    WAITING,
+    ADMITTED,
+    DONE,
+    EXPIRED,
+    LEFT,
+    SOLD_OUT
+}
+
+class WaitingRoomTicket {
+    final long sequence;
+    final User user;
+    final AtomicReference<WaitingStatus> status = new AtomicReference<>(WaitingStatus.WAITING);
+    volatile long admittedUntilNanos;
+
+    public WaitingRoomTicket(long sequence, User user) {
+        this.sequence = sequence;
+        this.user = user;
+    }
+
+    public WaitingStatus getStatus() {
+        return status.get();
+    }
+}
+
+// Virtual waiting room for a hot show release. Users queue in arrival order and are let in in
+// batches sized to the seats still unsold, so the Show only sees as many bookers as it can serve.
+// Once nothing is left to sell, everyone still waiting is turned away at once; if seats come back
+// later (a failed payment, a cancelled booking) the room reopens for new arrivals.
+class WaitingRoom {
+    private final Show show;
+    private final int seatsPerUser;
+    private final int maxBatch;
+    private final long admissionWindowNanos;
+    private final long batchIntervalMillis;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentLinkedQueue<WaitingRoomTicket> waiting = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<WaitingRoomTicket> admitted = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private volatile long lastAdmittedSequence;
+    private volatile double admittedPerSecond;
+    private volatile boolean soldOut;
+    private final ScheduledExecutorService ticker;
+
+    // seatsPerUser is the expected group size, used to turn free seats into a batch size.
+    public WaitingRoom(Show show, int seatsPerUser, int maxBatch, long admissionWindowMillis, long batchIntervalMillis) {
+        this.show = show;
+        this.seatsPerUser = Math.max(1, seatsPerUser);
+        this.maxBatch = maxBatch;
+        this.admissionWindowNanos = TimeUnit.MILLISECONDS.toNanos(admissionWindowMillis);
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "waiting-room-" + show.showId);
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::admitNextBatch, batchIntervalMillis, batchIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public WaitingRoomTicket join(User user) {
+        WaitingRoomTicket ticket = new WaitingRoomTicket(sequence.incrementAndGet(), user);
+        if (soldOut) {
+            ticket.status.set(WaitingStatus.SOLD_OUT);
+            return ticket;
+        }
+        waiting.add(ticket);
+        // The room may have sold out and drained the queue between the check and the add.
+        if (soldOut && ticket.status.compareAndSet(WaitingStatus.WAITING, WaitingStatus.SOLD_OUT)) {
+            waiting.remove(ticket);
+        }
+        return ticket;
+    }
+
+    // Users ahead of this ticket, counting ones that may since have left; 0 once admitted.
+    public long position(WaitingRoomTicket ticket) {
+        return (ticket.getStatus() == WaitingStatus.WAITING) ? Math.max(0, ticket.sequence - lastAdmittedSequence - 1) : 0;
+    }
+
+    // Estimated from the recent admission rate; -1 while there is no rate to go by.
+    public long expectedWaitMillis(WaitingRoomTicket ticket) {
+        double rate = admittedPerSecond;
+        if (ticket.getStatus() != WaitingStatus.WAITING) {
+            return 0;
+        }
+        return (rate <= 0) ? -1 : (long) ((position(ticket) + 1) * 1000 / rate);
+    }
+
+    // Only admitted tickets reach the Show; a successful booking ends the session.
+    public boolean book(WaitingRoomTicket ticket, int[] seatNumbers) {
+        if (ticket.getStatus() != WaitingStatus.ADMITTED || System.nanoTime() - ticket.admittedUntilNanos > 0) {
+            return false;
+        }
+        if (!new Booking(ticket.user, show, seatNumbers).confirm()) {
+            return false;
+        }
+        finish(ticket, WaitingStatus.DONE);
+        return true;
+    }
+
+    public void leave(WaitingRoomTicket ticket) {
+        if (!ticket.status.compareAndSet(WaitingStatus.WAITING, WaitingStatus.LEFT)) {
+            finish(ticket, WaitingStatus.LEFT);
+        }
+    }
+
+    private void finish(WaitingRoomTicket ticket, WaitingStatus endStatus) {
+        if (ticket.status.compareAndSet(WaitingStatus.ADMITTED, endStatus)) {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    void admitNextBatch() {
+        long now = System.nanoTime();
+        // Sessions are admitted in order with the same window, so expired ones sit at the head.
+        WaitingRoomTicket head;
+        while ((head = admitted.peek()) != null
+                && (head.getStatus() != WaitingStatus.ADMITTED || now - head.admittedUntilNanos > 0)) {
+            admitted.poll();
+            finish(head, WaitingStatus.EXPIRED);
+        }
+
+        // Holds are read before the seat map: a hold gives its seats back before it stops counting,
+        // so seats that can still come back are seen in one of the two.
+        int openHolds = show.openHolds();
+        int freeSeats = show.seatMap.freeCount();
+        if (soldOut) {
+            if (freeSeats == 0) {
+                return;
+            }
+            soldOut = false;
+        }
+        if (freeSeats == 0 && openHolds == 0) {
+            // Nothing left and no hold whose seats could come back. Admitted sessions book outright
+            // and hold nothing, so they are no reason to keep anyone waiting.
+            soldOut = true;
+            WaitingRoomTicket ticket;
+            while ((ticket = waiting.poll()) != null) {
+                ticket.status.compareAndSet(WaitingStatus.WAITING, WaitingStatus.SOLD_OUT);
+            }
+            return;
+        }
+
+        int batch = Math.min(maxBatch, (freeSeats + seatsPerUser - 1) / seatsPerUser - activeSessions.get());
+        int admittedNow = 0;
+        while (admittedNow < batch) {
+            WaitingRoomTicket ticket = waiting.poll();
+            if (ticket == null) {
+                break;
+            }
+            ticket.admittedUntilNanos = now + admissionWindowNanos;
+            if (ticket.status.compareAndSet(WaitingStatus.WAITING, WaitingStatus.ADMITTED)) {
+                activeSessions.incrementAndGet();
+                admitted.add(ticket);
+                admittedNow++;
+            }
+            lastAdmittedSequence = ticket.sequence;
+        }
+        double tickRate = admittedNow * 1000.0 / batchIntervalMillis;
+        admittedPerSecond = (admittedPerSecond == 0) ? tickRate : 0.8 * admittedPerSecond + 0.2 * tickRate;
+    }
+
+    public boolean isSoldOut() {
+        return soldOut;
+    }
+
+    public int activeSessions() {
+        return activeSessions.get();
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
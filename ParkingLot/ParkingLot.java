@@ -1,4 +1,14 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 enum VehicleType {
     TWO_WHEELER,
@@ -21,6 +31,7 @@ class Ticket {
     int startTime;
     int endTime;
     ParkingSlot parkingSlot;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public Ticket(int ticketId, int startTime, ParkingSlot parkingSlot) {
         this.ticketId = ticketId;
@@ -31,20 +42,41 @@ class Ticket {
     public void setEndTime(int endTime) {
         this.endTime = endTime;
     }
+
+    // Only the first exit for a ticket may free its slot; a repeat could free someone else's car.
+    public boolean close() {
+        return closed.compareAndSet(false, true);
+    }
 }
 
 class Bill {
     int ticketId;
     int cost;
+    // Set when the exit could not be written to the ticket ledger: after a restart the ticket would
+    // come back as still parked, so the caller has to report or repair it.
+    IOException ledgerError;
 
     public Bill(int ticketId, int cost) {
         this.ticketId = ticketId;
         this.cost = cost;
     }
+
+    public boolean isRecorded() {
+        return ledgerError == null;
+    }
 }
 
 interface PricingStrategy {
     int calculatePrice(int startTime, int endTime, int rate);
+
+    // End-of-day settlement: prices closed tickets in parallel, costs in the tickets' order.
+    default int[] priceAll(List<Ticket> tickets) {
+        Ticket[] batch = tickets.toArray(new Ticket[0]);
+        int[] costs = new int[batch.length];
+        IntStream.range(0, batch.length).parallel().forEach(i ->
+                costs[i] = calculatePrice(batch[i].startTime, batch[i].endTime, batch[i].parkingSlot.getRate()));
+        return costs;
+    }
 }
 
 class MinuteBasedStrategy implements PricingStrategy {
@@ -63,35 +95,44 @@ interface ParkingSlot {
     int getRate();
 
     int getId();
+
+    VehicleType getVehicleType();
+
+    int getLevel();
+
+    // Distance along the level from its ramp end, in the same units gates are placed in.
+    int getPosition();
 }
 
 class TwoWheelerSlot implements ParkingSlot {
     int id;
-    boolean available = true;
-    Vehicle vehicle;
+    final AtomicReference<Vehicle> vehicle = new AtomicReference<>();
     int price;
+    int level;
+    int position;
 
     public TwoWheelerSlot(int id, int price) {
+        this(id, price, 0, id - 1);
+    }
+
+    public TwoWheelerSlot(int id, int price, int level, int position) {
         this.id = id;
         this.price = price;
+        this.level = level;
+        this.position = position;
     }
 
+    // Check-and-set in one CAS, so two gates can never both win the same slot.
     public boolean assignParkingSlot(Vehicle vehicle) {
-        if (available) {
-            this.vehicle = vehicle;
-            this.available = false;
-            return true;
-        }
-        return false;
+        return this.vehicle.compareAndSet(null, vehicle);
     }
 
     public void freeParkingSlot() {
-        this.vehicle = null;
-        this.available = true;
+        this.vehicle.set(null);
     }
 
     public boolean isAvailable() {
-        return available;
+        return vehicle.get() == null;
     }
 
     public int getRate() {
@@ -101,35 +142,49 @@ class TwoWheelerSlot implements ParkingSlot {
     public int getId() {
         return id;
     }
+
+    public VehicleType getVehicleType() {
+        return VehicleType.TWO_WHEELER;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getPosition() {
+        return position;
+    }
 }
 
 class FourWheelerSlot implements ParkingSlot {
     int id;
-    boolean available = true;
-    Vehicle vehicle;
+    final AtomicReference<Vehicle> vehicle = new AtomicReference<>();
     int price;
+    int level;
+    int position;
 
     public FourWheelerSlot(int id, int price) {
+        this(id, price, 0, id - 1);
+    }
+
+    public FourWheelerSlot(int id, int price, int level, int position) {
         this.id = id;
         this.price = price;
+        this.level = level;
+        this.position = position;
     }
 
+    // Check-and-set in one CAS, so two gates can never both win the same slot.
     public boolean assignParkingSlot(Vehicle vehicle) {
-        if (available) {
-            this.vehicle = vehicle;
-            this.available = false;
-            return true;
-        }
-        return false;
+        return this.vehicle.compareAndSet(null, vehicle);
     }
 
     public void freeParkingSlot() {
-        this.vehicle = null;
-        this.available = true;
+        this.vehicle.set(null);
     }
 
     public boolean isAvailable() {
-        return available;
+        return vehicle.get() == null;
     }
 
     public int getRate() {
@@ -139,12 +194,29 @@ class FourWheelerSlot implements ParkingSlot {
     public int getId() {
         return id;
     }
+
+    public VehicleType getVehicleType() {
+        return VehicleType.FOUR_WHEELER;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getPosition() {
+        return position;
+    }
 }
 
 class ParkingSlotManager {
+    static final int WALK_IN_HORIZON_MINUTES = 120;
+    static final int EARLY_ARRIVAL_MINUTES = 15;
+
     private List<ParkingSlot> twoWheelerSlots;
     private List<ParkingSlot> fourWheelerSlots;
     private SlotSelectionStrategy selectionStrategy;
+    private ParkingMetrics metrics;
+    private ReservationBook reservations;
 
     public ParkingSlotManager(List<ParkingSlot> twoWheelerSlots,
             List<ParkingSlot> fourWheelerSlots,
@@ -152,19 +224,102 @@ class ParkingSlotManager {
         this.twoWheelerSlots = twoWheelerSlots;
         this.fourWheelerSlots = fourWheelerSlots;
         this.selectionStrategy = selectionStrategy;
+        int levels = 1;
+        for (List<ParkingSlot> slots : Arrays.asList(twoWheelerSlots, fourWheelerSlots)) {
+            for (ParkingSlot slot : slots) {
+                levels = Math.max(levels, slot.getLevel() + 1);
+            }
+        }
+        this.metrics = new ParkingMetrics(levels);
+        this.reservations = new ReservationBook(twoWheelerSlots, fourWheelerSlots, WALK_IN_HORIZON_MINUTES,
+                EARLY_ARRIVAL_MINUTES);
     }
 
+    // Another gate can take the selected slot before we do; pick again until we win one or none are left.
     public ParkingSlot assignSlot(Vehicle vehicle) {
+        return assignSlot(vehicle, 0);
+    }
+
+    public ParkingSlot assignSlot(Vehicle vehicle, int gateId) {
+        selectionStrategy.checkGate(gateId);
         List<ParkingSlot> slots = getSlotsByType(vehicle.vehicleType);
-        ParkingSlot slot = selectionStrategy.selectSlot(slots);
-        if (slot != null && slot.assignParkingSlot(vehicle)) {
-            return slot;
+        while (true) {
+            ParkingSlot slot = selectionStrategy.selectSlot(vehicle.vehicleType, slots, gateId);
+            if (slot == null) {
+                return null;
+            }
+            if (slot.assignParkingSlot(vehicle)) {
+                metrics.slotAssigned(slot);
+                return slot;
+            }
         }
-        return null;
+    }
+
+    // Walk-in at the given time: the strategy passes over slots reserved soon without claiming them,
+    // so a reservation holder arriving meanwhile still finds their slot free. A reservation booked
+    // between the check and the claim sends the walk-in on to the next slot.
+    public ParkingSlot assignSlot(Vehicle vehicle, int gateId, int time) {
+        selectionStrategy.checkGate(gateId);
+        List<ParkingSlot> slots = getSlotsByType(vehicle.vehicleType);
+        Predicate<ParkingSlot> openForWalkIn = slot -> reservations.isOpenForWalkIn(slot, time);
+        while (true) {
+            ParkingSlot slot = selectionStrategy.selectSlot(vehicle.vehicleType, slots, gateId, openForWalkIn);
+            if (slot == null) {
+                return null;
+            }
+            if (!slot.assignParkingSlot(vehicle)) {
+                continue;
+            }
+            if (openForWalkIn.test(slot)) {
+                metrics.slotAssigned(slot);
+                return slot;
+            }
+            freeSlot(slot);
+        }
+    }
+
+    // The reserved slot if it is free; otherwise (car still there from before) any walk-in slot.
+    // A strategy that still lists the reserved slot as free finds it taken and picks again.
+    // Redeeming first stops two arrivals using one reservation; if no slot is found after all, the
+    // reservation goes back to BOOKED so the holder can try again.
+    public ParkingSlot assignReservedSlot(Reservation reservation, Vehicle vehicle, int gateId, int time) {
+        selectionStrategy.checkGate(gateId);
+        if (reservation.slot.getVehicleType() != vehicle.vehicleType || !reservations.redeem(reservation, time)) {
+            return null;
+        }
+        if (reservation.slot.assignParkingSlot(vehicle)) {
+            metrics.slotAssigned(reservation.slot);
+            return reservation.slot;
+        }
+        ParkingSlot slot = assignSlot(vehicle, gateId, time);
+        if (slot == null) {
+            reservations.unredeem(reservation);
+        }
+        return slot;
     }
 
     public void releaseSlot(ParkingSlot slot) {
+        metrics.slotReleased(slot, -1);
+        freeSlot(slot);
+    }
+
+    // Release at exit: the freed slot and the stay length land in the metrics as one event.
+    public void releaseSlot(ParkingSlot slot, int dwellMinutes) {
+        metrics.slotReleased(slot, dwellMinutes);
+        freeSlot(slot);
+    }
+
+    private void freeSlot(ParkingSlot slot) {
         slot.freeParkingSlot();
+        selectionStrategy.onSlotReleased(slot);
+    }
+
+    public ParkingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ReservationBook getReservations() {
+        return reservations;
     }
 
     private List<ParkingSlot> getSlotsByType(VehicleType type) {
@@ -172,13 +327,164 @@ class ParkingSlotManager {
     }
 }
 
+class MetricsSnapshot {
+    final long[][] occupied;
+    final long[] dwellBuckets;
+    final long exits;
+
+    public MetricsSnapshot(long[][] occupied, long[] dwellBuckets, long exits) {
+        this.occupied = occupied;
+        this.dwellBuckets = dwellBuckets;
+        this.exits = exits;
+    }
+
+    public long occupancy(VehicleType type, int level) {
+        return occupied[type.ordinal()][level];
+    }
+
+    public long occupancy(VehicleType type) {
+        long total = 0;
+        for (long count : occupied[type.ordinal()]) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Upper bound of the bucket holding the given percentile of stays, in minutes.
+    public long dwellPercentile(double percentile) {
+        long rank = (long) Math.ceil(exits * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < dwellBuckets.length; i++) {
+            seen += dwellBuckets[i];
+            if (seen >= rank && seen > 0) {
+                return ParkingMetrics.bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+}
+
+// Occupancy per vehicle type and level, and a histogram of stay lengths.
+// Gates only do atomic increments into the active half of a double buffer. snapshot() flips the
+// halves, waits for writers still in the old half (writer/reader phaser), and folds it into the
+// running totals, so every snapshot contains exactly the events before the flip and nothing else.
+class ParkingMetrics {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int DWELL_BUCKETS = SUB_COUNT + (32 - SUB_BITS) * SUB_COUNT;
+
+    private final int levels;
+    private final int cells;
+    // [occupancy cells..., dwell buckets..., exit count]
+    private final AtomicLongArray[] buffers = new AtomicLongArray[2];
+    private final long[] totals;
+
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    public ParkingMetrics(int levels) {
+        this.levels = levels;
+        this.cells = VehicleType.values().length * levels;
+        int width = cells + DWELL_BUCKETS + 1;
+        buffers[0] = new AtomicLongArray(width);
+        buffers[1] = new AtomicLongArray(width);
+        totals = new long[width];
+    }
+
+    static int bucketOf(long minutes) {
+        if (minutes < SUB_COUNT) {
+            return (int) Math.max(0, minutes);
+        }
+        int exponent = Math.min(31, 63 - Long.numberOfLeadingZeros(minutes));
+        int sub = (int) (minutes >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        int sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    private int cell(ParkingSlot slot) {
+        return slot.getVehicleType().ordinal() * levels + slot.getLevel();
+    }
+
+    public void slotAssigned(ParkingSlot slot) {
+        long epoch = startEpoch.getAndIncrement();
+        buffers[epoch < 0 ? 1 : 0].incrementAndGet(cell(slot));
+        (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    // dwellMinutes < 0 means the slot was freed without an exit to time.
+    public void slotReleased(ParkingSlot slot, int dwellMinutes) {
+        long epoch = startEpoch.getAndIncrement();
+        AtomicLongArray buffer = buffers[epoch < 0 ? 1 : 0];
+        buffer.decrementAndGet(cell(slot));
+        if (dwellMinutes >= 0) {
+            buffer.incrementAndGet(cells + bucketOf(dwellMinutes));
+            buffer.incrementAndGet(cells + DWELL_BUCKETS);
+        }
+        (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    public synchronized MetricsSnapshot snapshot() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initial = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initial);
+        long startAtFlip = startEpoch.getAndSet(initial);
+        AtomicLong retiredEnd = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (retiredEnd.get() != startAtFlip) {
+            Thread.yield();
+        }
+        AtomicLongArray retired = buffers[nextPhaseIsEven ? 1 : 0];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += retired.getAndSet(i, 0);
+        }
+
+        long[][] occupied = new long[VehicleType.values().length][levels];
+        for (int i = 0; i < cells; i++) {
+            occupied[i / levels][i % levels] = totals[i];
+        }
+        return new MetricsSnapshot(occupied, Arrays.copyOfRange(totals, cells, cells + DWELL_BUCKETS), totals[cells + DWELL_BUCKETS]);
+    }
+}
+
 interface SlotSelectionStrategy {
-    ParkingSlot selectSlot(List<ParkingSlot> slots);
+    ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots);
+
+    // Gate-aware strategies pick the slot nearest to the entry gate the vehicle came through.
+    default ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots, int gateId) {
+        return selectSlot(type, slots);
+    }
+
+    // Nearest slot 'allowed' accepts. Slots it turns down stay free for everyone else, so strategies
+    // that track free slots themselves must override this and claim only the slot they return.
+    default ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots, int gateId, Predicate<ParkingSlot> allowed) {
+        for (ParkingSlot slot : slots) {
+            if (slot.isAvailable() && allowed.test(slot)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    // Strategies that track free slots themselves hear about every release here.
+    default void onSlotReleased(ParkingSlot slot) {
+    }
+
+    // Gate-aware strategies reject gate ids they were not built for; the rest ignore the gate.
+    default void checkGate(int gateId) {
+    }
 }
 
 class NearestSlotStrategy implements SlotSelectionStrategy {
     @Override
-    public ParkingSlot selectSlot(List<ParkingSlot> slots) {
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots) {
         for (ParkingSlot slot : slots) {
             if (slot.isAvailable()) {
                 return slot;
@@ -188,18 +494,388 @@ class NearestSlotStrategy implements SlotSelectionStrategy {
     }
 }
 
+// Lock-free bitset with a summary level per 64 words, so finding the lowest set bit touches one word
+// per level. Summary bits may briefly be stale while a word is being emptied or refilled; readers
+// retry on a stale set bit, and a clear that races with a set re-publishes the summary bit.
+class HierarchicalBitSet {
+    private final AtomicLongArray[] levels;
+
+    public HierarchicalBitSet(int size) {
+        List<AtomicLongArray> built = new ArrayList<>();
+        int bits = Math.max(1, size);
+        do {
+            built.add(new AtomicLongArray((bits + 63) >>> 6));
+            bits = (bits + 63) >>> 6;
+        } while (bits > 1);
+        levels = built.toArray(new AtomicLongArray[0]);
+    }
+
+    public void set(int index) {
+        for (AtomicLongArray level : levels) {
+            int word = index >>> 6;
+            long before = level.getAndAccumulate(word, 1L << index, (current, bit) -> current | bit);
+            if (before != 0) {
+                return;
+            }
+            index = word;
+        }
+    }
+
+    // True if this call cleared the bit, false if it was already clear.
+    public boolean clear(int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        long before = levels[0].getAndAccumulate(word, ~bit, (current, mask) -> current & mask);
+        if ((before & bit) == 0) {
+            return false;
+        }
+        if (before == bit) {
+            clearSummary(1, word);
+        }
+        return true;
+    }
+
+    private void clearSummary(int level, int index) {
+        for (; level < levels.length; level++) {
+            int word = index >>> 6;
+            long after = levels[level].accumulateAndGet(word, ~(1L << index), (current, mask) -> current & mask);
+            if (levels[level - 1].get(index) != 0) {
+                // refilled while we were clearing: put the summary bit back
+                set(level, index);
+                return;
+            }
+            if (after != 0) {
+                return;
+            }
+            index = word;
+        }
+    }
+
+    private void set(int level, int index) {
+        for (; level < levels.length; level++) {
+            int word = index >>> 6;
+            if (levels[level].getAndAccumulate(word, 1L << index, (current, bit) -> current | bit) != 0) {
+                return;
+            }
+            index = word;
+        }
+    }
+
+    // Lowest set bit, or -1 when empty.
+    public int first() {
+        retry:
+        while (true) {
+            int index = 0;
+            for (int l = levels.length - 1; l >= 0; l--) {
+                long word = levels[l].get(index);
+                if (word == 0) {
+                    if (l == levels.length - 1) {
+                        return -1;
+                    }
+                    continue retry;
+                }
+                index = (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+            return index;
+        }
+    }
+
+    // Lowest set bit at or after from, or -1. Empty words are skipped through the summary levels.
+    public int nextSetBit(int from) {
+        return next(0, from);
+    }
+
+    private int next(int level, int from) {
+        while (true) {
+            int word = from >>> 6;
+            if (word >= levels[level].length()) {
+                return -1;
+            }
+            long bits = levels[level].get(word) & (-1L << from);
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (level + 1 == levels.length) {
+                return -1;
+            }
+            // a stale summary bit just leads to an empty word, and the scan moves on past it
+            int nextWord = next(level + 1, word + 1);
+            if (nextWord < 0) {
+                return -1;
+            }
+            from = nextWord << 6;
+        }
+    }
+
+    // Atomically takes the lowest set bit, or returns -1 when empty.
+    public int claimFirst() {
+        while (true) {
+            int index = first();
+            if (index < 0 || clear(index)) {
+                return index;
+            }
+        }
+    }
+}
+
+// Keeps the free slots of each vehicle type in a bitset ordered by the slot's position in its list
+// (nearest first), so picking and returning a slot is O(log64 n) instead of a scan.
+class FreeSlotIndexStrategy implements SlotSelectionStrategy {
+    private static class TypeIndex {
+        final List<ParkingSlot> slotsByRank;
+        final int[] rankById;
+        final HierarchicalBitSet free;
+
+        TypeIndex(List<ParkingSlot> slots) {
+            slotsByRank = slots;
+            int maxId = 0;
+            for (ParkingSlot slot : slotsByRank) {
+                maxId = Math.max(maxId, slot.getId());
+            }
+            rankById = new int[maxId + 1];
+            free = new HierarchicalBitSet(slotsByRank.size());
+            for (int rank = 0; rank < slotsByRank.size(); rank++) {
+                ParkingSlot slot = slotsByRank.get(rank);
+                rankById[slot.getId()] = rank;
+                if (slot.isAvailable()) {
+                    free.set(rank);
+                }
+            }
+        }
+    }
+
+    private final Map<VehicleType, TypeIndex> indexes = new EnumMap<>(VehicleType.class);
+
+    public FreeSlotIndexStrategy(List<ParkingSlot> twoWheelerSlots, List<ParkingSlot> fourWheelerSlots) {
+        indexes.put(VehicleType.TWO_WHEELER, new TypeIndex(twoWheelerSlots));
+        indexes.put(VehicleType.FOUR_WHEELER, new TypeIndex(fourWheelerSlots));
+    }
+
+    @Override
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots) {
+        TypeIndex index = indexes.get(type);
+        int rank = index.free.claimFirst();
+        return (rank < 0) ? null : index.slotsByRank.get(rank);
+    }
+
+    @Override
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots, int gateId, Predicate<ParkingSlot> allowed) {
+        TypeIndex index = indexes.get(type);
+        for (int rank = index.free.nextSetBit(0); rank >= 0; rank = index.free.nextSetBit(rank + 1)) {
+            ParkingSlot slot = index.slotsByRank.get(rank);
+            if (allowed.test(slot) && index.free.clear(rank)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onSlotReleased(ParkingSlot slot) {
+        TypeIndex index = indexes.get(slot.getVehicleType());
+        index.free.set(index.rankById[slot.getId()]);
+    }
+}
+
+class GateLocation {
+    int level;
+    int position;
+
+    public GateLocation(int level, int position) {
+        this.level = level;
+        this.position = position;
+    }
+
+    // Walking distance to a slot: along the level, plus a fixed cost per ramp climbed.
+    public int distanceTo(ParkingSlot slot) {
+        return Math.abs(slot.getLevel() - level) * GateAwareSlotStrategy.LEVEL_DISTANCE
+                + Math.abs(slot.getPosition() - position);
+    }
+}
+
+// Every entry gate gets its own nearest-first ordering of the slots, built once up front as an
+// int[] of slot indexes (the slot objects themselves are shared). Each gate keeps a free bitset
+// over its own ordering, so it claims its closest free slot in O(log64 n) without looking at the
+// other gates' orderings; a claim or release then flips that slot's bit in every gate's bitset.
+class GateAwareSlotStrategy implements SlotSelectionStrategy {
+    static final int LEVEL_DISTANCE = 100;
+
+    private static class TypeIndex {
+        final List<ParkingSlot> slots;
+        final int[] indexById;
+        final int[][] slotByRank;
+        final int[][] rankBySlot;
+        final HierarchicalBitSet[] freeByGate;
+        final AtomicIntegerArray taken;
+
+        TypeIndex(List<ParkingSlot> slotList, List<GateLocation> gates) {
+            slots = slotList;
+            int count = slots.size();
+            int maxId = 0;
+            for (ParkingSlot slot : slots) {
+                maxId = Math.max(maxId, slot.getId());
+            }
+            indexById = new int[maxId + 1];
+            for (int i = 0; i < count; i++) {
+                indexById[slots.get(i).getId()] = i;
+            }
+            taken = new AtomicIntegerArray(count);
+            slotByRank = new int[gates.size()][];
+            rankBySlot = new int[gates.size()][count];
+            freeByGate = new HierarchicalBitSet[gates.size()];
+            long[] keys = new long[count];
+            for (int g = 0; g < gates.size(); g++) {
+                GateLocation gate = gates.get(g);
+                for (int i = 0; i < count; i++) {
+                    keys[i] = ((long) gate.distanceTo(slots.get(i)) << 32) | i;
+                }
+                Arrays.sort(keys);
+                slotByRank[g] = new int[count];
+                freeByGate[g] = new HierarchicalBitSet(count);
+                for (int rank = 0; rank < count; rank++) {
+                    int slot = (int) keys[rank];
+                    slotByRank[g][rank] = slot;
+                    rankBySlot[g][slot] = rank;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (slots.get(i).isAvailable()) {
+                    markFree(i);
+                } else {
+                    taken.set(i, 1);
+                }
+            }
+        }
+
+        void markFree(int slot) {
+            for (int g = 0; g < freeByGate.length; g++) {
+                freeByGate[g].set(rankBySlot[g][slot]);
+            }
+        }
+
+        void markTaken(int slot) {
+            for (int g = 0; g < freeByGate.length; g++) {
+                freeByGate[g].clear(rankBySlot[g][slot]);
+            }
+        }
+    }
+
+    private final Map<VehicleType, TypeIndex> indexes = new EnumMap<>(VehicleType.class);
+    private final int gateCount;
+
+    public GateAwareSlotStrategy(List<ParkingSlot> twoWheelerSlots, List<ParkingSlot> fourWheelerSlots,
+            List<GateLocation> entryGates) {
+        gateCount = entryGates.size();
+        indexes.put(VehicleType.TWO_WHEELER, new TypeIndex(twoWheelerSlots, entryGates));
+        indexes.put(VehicleType.FOUR_WHEELER, new TypeIndex(fourWheelerSlots, entryGates));
+    }
+
+    @Override
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots) {
+        return selectSlot(type, slots, 0);
+    }
+
+    @Override
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots, int gateId) {
+        TypeIndex index = indexes.get(type);
+        HierarchicalBitSet free = index.freeByGate[gateId];
+        while (true) {
+            int rank = free.claimFirst();
+            if (rank < 0) {
+                return null;
+            }
+            int slot = index.slotByRank[gateId][rank];
+            // The bit may be stale if another gate just took this slot; 'taken' decides.
+            if (index.taken.compareAndSet(slot, 0, 1)) {
+                index.markTaken(slot);
+                return index.slots.get(slot);
+            }
+        }
+    }
+
+    @Override
+    public void checkGate(int gateId) {
+        if (gateId < 0 || gateId >= gateCount) {
+            throw new IllegalArgumentException("Unknown entry gate " + gateId + ", expected 0.." + (gateCount - 1));
+        }
+    }
+
+    // Walks this gate's free ranks nearest first; slots turned down keep their bits in every gate.
+    @Override
+    public ParkingSlot selectSlot(VehicleType type, List<ParkingSlot> slots, int gateId, Predicate<ParkingSlot> allowed) {
+        TypeIndex index = indexes.get(type);
+        HierarchicalBitSet free = index.freeByGate[gateId];
+        for (int rank = free.nextSetBit(0); rank >= 0; rank = free.nextSetBit(rank + 1)) {
+            int slot = index.slotByRank[gateId][rank];
+            if (allowed.test(index.slots.get(slot)) && index.taken.compareAndSet(slot, 0, 1)) {
+                index.markTaken(slot);
+                return index.slots.get(slot);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onSlotReleased(ParkingSlot slot) {
+        TypeIndex index = indexes.get(slot.getVehicleType());
+        int i = index.indexById[slot.getId()];
+        index.taken.set(i, 0);
+        index.markFree(i);
+    }
+}
+
 class EntryGate {
     private ParkingSlotManager slotManager;
-    private static int ticketCounter = 1;
+    private int gateId;
+    private TicketLedger ledger;
+    private static final AtomicInteger ticketCounter = new AtomicInteger(1);
 
     public EntryGate(ParkingSlotManager slotManager) {
+        this(slotManager, 0);
+    }
+
+    public EntryGate(ParkingSlotManager slotManager, int gateId) {
+        this(slotManager, gateId, null);
+    }
+
+    public EntryGate(ParkingSlotManager slotManager, int gateId, TicketLedger ledger) {
         this.slotManager = slotManager;
+        this.gateId = gateId;
+        this.ledger = ledger;
+    }
+
+    // After recovery, new tickets must not reuse ids of tickets issued before the restart.
+    static void advanceTicketCounter(int nextTicketId) {
+        ticketCounter.accumulateAndGet(nextTicketId, Math::max);
     }
 
     public Ticket allotParkingSpot(Vehicle vehicle, int startTime) {
-        ParkingSlot slot = slotManager.assignSlot(vehicle);
+        return issueTicket(vehicle, startTime, slotManager.assignSlot(vehicle, gateId, startTime));
+    }
+
+    // Null if the reservation was already used or cancelled, is over or not yet open, or the lot is full.
+    // A reservation redeemed for an entry that then fails stays usable.
+    public Ticket allotReservedSpot(Reservation reservation, Vehicle vehicle, int startTime) {
+        ParkingSlot slot = slotManager.assignReservedSlot(reservation, vehicle, gateId, startTime);
+        Ticket ticket = issueTicket(vehicle, startTime, slot);
+        if (ticket == null && slot != null) {
+            slotManager.getReservations().unredeem(reservation);
+        }
+        return ticket;
+    }
+
+    private Ticket issueTicket(Vehicle vehicle, int startTime, ParkingSlot slot) {
         if (slot != null) {
-            Ticket ticket = new Ticket(ticketCounter++, startTime, slot);
+            Ticket ticket = new Ticket(ticketCounter.getAndIncrement(), startTime, slot);
+            if (ledger != null) {
+                try {
+                    ledger.recordAllot(ticket, vehicle);
+                } catch (IOException e) {
+                    // A ticket the ledger does not know about would be lost on restart; refuse entry.
+                    slotManager.releaseSlot(slot);
+                    return null;
+                }
+            }
             vehicle.ticket = ticket;
             return ticket;
         }
@@ -208,56 +884,176 @@ class EntryGate {
 }
 
 class ExitGate {
+    private ParkingSlotManager slotManager;
     private PricingStrategy pricingStrategy;
 
+    private TicketLedger ledger;
+
+    // A gate with no slot manager frees the slot itself, with no metrics or reservation upkeep.
     public ExitGate(PricingStrategy pricingStrategy) {
+        this(null, pricingStrategy, null);
+    }
+
+    public ExitGate(ParkingSlotManager slotManager, PricingStrategy pricingStrategy) {
+        this(slotManager, pricingStrategy, null);
+    }
+
+    public ExitGate(ParkingSlotManager slotManager, PricingStrategy pricingStrategy, TicketLedger ledger) {
+        this.slotManager = slotManager;
         this.pricingStrategy = pricingStrategy;
+        this.ledger = ledger;
     }
 
+    // Null if the ticket has already been billed. The car is leaving regardless, so a ledger failure
+    // does not stop the exit; it comes back on the bill (see Bill.ledgerError).
     public Bill generateBill(Ticket ticket, int endTime) {
+        if (!ticket.close()) {
+            return null;
+        }
         ticket.setEndTime(endTime);
         int rate = ticket.parkingSlot.getRate();
         int cost = pricingStrategy.calculatePrice(ticket.startTime, endTime, rate);
-        ticket.parkingSlot.freeParkingSlot();
-        return new Bill(ticket.ticketId, cost);
+        Bill bill = new Bill(ticket.ticketId, cost);
+        if (ledger != null) {
+            try {
+                ledger.recordExit(ticket, endTime);
+            } catch (IOException e) {
+                bill.ledgerError = e;
+            }
+        }
+        if (slotManager == null) {
+            ticket.parkingSlot.freeParkingSlot();
+            return bill;
+        }
+        slotManager.releaseSlot(ticket.parkingSlot, endTime - ticket.startTime);
+        slotManager.getReservations().advanceTo(endTime);
+        return bill;
     }
 }
 
 class ParkingSpace {
-    List<ParkingSlot> twoWheelerSlots = new ArrayList<>();
-    List<ParkingSlot> fourWheelerSlots = new ArrayList<>();
-    EntryGate entryGate;
-    ExitGate exitGate;
+    SlotStore twoWheelerStore;
+    SlotStore fourWheelerStore;
+    List<ParkingSlot> twoWheelerSlots;
+    List<ParkingSlot> fourWheelerSlots;
+    List<GateLocation> gateLocations = new ArrayList<>();
+    List<EntryGate> entryGates = new ArrayList<>();
+    List<ExitGate> exitGates = new ArrayList<>();
+    ParkingSlotManager slotManager;
+    Map<Integer, Ticket> openTickets = new HashMap<>();
 
     public ParkingSpace() {
-        for (int i = 1; i <= 5; i++) {
-            twoWheelerSlots.add(ParkingSlotFactory.createSlot(i, VehicleType.TWO_WHEELER, 1));
-            fourWheelerSlots.add(ParkingSlotFactory.createSlot(i, VehicleType.FOUR_WHEELER, 2));
+        this(5, 1, 1);
+    }
+
+    public ParkingSpace(int slotsPerType, int entryGateCount, int exitGateCount) {
+        this(1, slotsPerType, entryGateCount, exitGateCount);
+    }
+
+    public ParkingSpace(int levels, int slotsPerLevel, int entryGateCount, int exitGateCount) {
+        this(levels, slotsPerLevel, entryGateCount, exitGateCount, null);
+    }
+
+    // Slots are laid out level by level; entry gates sit on the ground level, spread evenly along it.
+    // All gates share one slot manager; slot claims and ticket ids are safe across gate threads.
+    // With a ledger, every parked car from before a restart is put back in its slot with its ticket.
+    // Slots live in columnar SlotStores, so a city-sized lot is a few arrays rather than millions of objects.
+    public ParkingSpace(int levels, int slotsPerLevel, int entryGateCount, int exitGateCount, TicketLedger ledger) {
+        twoWheelerStore = new SlotStore(VehicleType.TWO_WHEELER, levels * slotsPerLevel);
+        fourWheelerStore = new SlotStore(VehicleType.FOUR_WHEELER, levels * slotsPerLevel);
+        for (int level = 0; level < levels; level++) {
+            for (int position = 0; position < slotsPerLevel; position++) {
+                twoWheelerStore.add(1, level, position);
+                fourWheelerStore.add(2, level, position);
+            }
+        }
+        twoWheelerSlots = twoWheelerStore.asList();
+        fourWheelerSlots = fourWheelerStore.asList();
+        for (int g = 0; g < entryGateCount; g++) {
+            gateLocations.add(new GateLocation(0, (2 * g + 1) * slotsPerLevel / (2 * entryGateCount)));
         }
 
-        SlotSelectionStrategy slotStrategy = new NearestSlotStrategy();
+        // Occupy recovered slots before the strategy indexes them, so it starts with the right free set.
+        List<ParkingSlot> restoredSlots = new ArrayList<>();
+        if (ledger != null) {
+            try {
+                for (OpenTicket open : ledger.recover()) {
+                    List<ParkingSlot> slots = (open.vehicleType == VehicleType.TWO_WHEELER) ? twoWheelerSlots : fourWheelerSlots;
+                    if (open.slotId < 1 || open.slotId > slots.size()) {
+                        throw new IOException("Ticket " + open.ticketId + " is parked in " + open.vehicleType
+                                + " slot " + open.slotId + ", but the lot has " + slots.size() + " of them");
+                    }
+                    ParkingSlot slot = slots.get(open.slotId - 1);
+                    Vehicle vehicle = new Vehicle(open.vehicleId, open.vehicleType);
+                    if (!slot.assignParkingSlot(vehicle)) {
+                        throw new IOException("Ticket " + open.ticketId + " is parked in " + open.vehicleType
+                                + " slot " + open.slotId + ", which another open ticket already holds");
+                    }
+                    vehicle.ticket = new Ticket(open.ticketId, open.startTime, slot);
+                    openTickets.put(open.ticketId, vehicle.ticket);
+                    restoredSlots.add(slot);
+                }
+                EntryGate.advanceTicketCounter(ledger.getNextTicketId());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not recover parking tickets", e);
+            }
+        }
 
-        ParkingSlotManager slotManager = new ParkingSlotManager(twoWheelerSlots, fourWheelerSlots, slotStrategy);
-        entryGate = new EntryGate(slotManager);
-        exitGate = new ExitGate(new MinuteBasedStrategy());
+        SlotSelectionStrategy slotStrategy = new GateAwareSlotStrategy(twoWheelerSlots, fourWheelerSlots, gateLocations);
+
+        slotManager = new ParkingSlotManager(twoWheelerSlots, fourWheelerSlots, slotStrategy);
+        for (ParkingSlot slot : restoredSlots) {
+            slotManager.getMetrics().slotAssigned(slot);
+        }
+        for (int i = 0; i < entryGateCount; i++) {
+            entryGates.add(new EntryGate(slotManager, i, ledger));
+        }
+        for (int i = 0; i < exitGateCount; i++) {
+            exitGates.add(new ExitGate(slotManager, new MinuteBasedStrategy(), ledger));
+        }
+    }
+
+    // Tickets of cars that were parked when the lot was restarted, by ticket id.
+    public Ticket getRecoveredTicket(int ticketId) {
+        return openTickets.get(ticketId);
     }
 
     public EntryGate getEntryGate() {
-        return entryGate;
+        return entryGates.get(0);
+    }
+
+    public ParkingMetrics getMetrics() {
+        return slotManager.getMetrics();
+    }
+
+    public ReservationBook getReservations() {
+        return slotManager.getReservations();
     }
 
     public ExitGate getExitGate() {
-        return exitGate;
+        return exitGates.get(0);
+    }
+
+    public EntryGate getEntryGate(int gate) {
+        return entryGates.get(gate);
+    }
+
+    public ExitGate getExitGate(int gate) {
+        return exitGates.get(gate);
     }
 }
 
 class ParkingSlotFactory {
     public static ParkingSlot createSlot(int id, VehicleType type, int price) {
+        return createSlot(id, type, price, 0, id - 1);
+    }
+
+    public static ParkingSlot createSlot(int id, VehicleType type, int price, int level, int position) {
         switch (type) {
             case TWO_WHEELER:
-                return new TwoWheelerSlot(id, price);
+                return new TwoWheelerSlot(id, price, level, position);
             case FOUR_WHEELER:
-                return new FourWheelerSlot(id, price);
+                return new FourWheelerSlot(id, price, level, position);
             default:
                 throw new IllegalArgumentException("Unknown VehicleType: " + type);
         }
@@ -0,0 +1,294 @@
+import java.util.*;
+
+// Discrete-event simulation of a month of traffic through real EntryGate/ExitGate objects.
+// Time is a virtual clock in minutes: the next event is popped off a priority queue and the clock
+// jumps to it, so a month runs in seconds and every configuration sees the same arrival stream.
+//
+// Arrivals are Poisson with a rush-hour curve (thinning against the peak rate). A driver picks an
+// entry gate at random and queues; a full queue turns them away, and so does a full lot once they
+// reach the barrier. At the end of the stay the car queues at a random exit gate to pay.
+// Usage: java ParkingLotSimulator [days] [levels] [slotsPerLevel] [peakArrivalsPerMinute]
+public class ParkingLotSimulator {
+    interface StrategyFactory {
+        SlotSelectionStrategy create(List<ParkingSlot> twoWheelerSlots, List<ParkingSlot> fourWheelerSlots,
+                List<GateLocation> entryGates);
+    }
+
+    static final double ENTRY_SERVICE_MINUTES = 0.25;
+    static final double EXIT_SERVICE_MINUTES = 0.5;
+    static final int MAX_GATE_QUEUE = 25;
+
+    private static final int ARRIVAL = 0;
+    private static final int ENTRY_DONE = 1;
+    private static final int DEPARTURE = 2;
+    private static final int EXIT_DONE = 3;
+
+    static class Car {
+        final Vehicle vehicle;
+        final double stayMinutes;
+        double queuedAt;
+        Ticket ticket;
+
+        Car(Vehicle vehicle, double stayMinutes) {
+            this.vehicle = vehicle;
+            this.stayMinutes = stayMinutes;
+        }
+    }
+
+    static class Event implements Comparable<Event> {
+        final double time;
+        final long sequence;
+        final int kind;
+        final int gate;
+        final Car car;
+
+        Event(double time, long sequence, int kind, int gate, Car car) {
+            this.time = time;
+            this.sequence = sequence;
+            this.kind = kind;
+            this.gate = gate;
+            this.car = car;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Double.compare(time, other.time);
+            return (byTime != 0) ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    static class Gate {
+        final ArrayDeque<Car> queue = new ArrayDeque<>();
+        boolean busy;
+    }
+
+    // Queue waits in whole seconds, bucketed like the dwell histogram in ParkingMetrics.
+    static class WaitStats {
+        final long[] buckets = new long[ParkingMetrics.DWELL_BUCKETS];
+        long count;
+        double totalMinutes;
+
+        void record(double minutes) {
+            buckets[ParkingMetrics.bucketOf((long) (minutes * 60))]++;
+            count++;
+            totalMinutes += minutes;
+        }
+
+        double meanSeconds() {
+            return (count == 0) ? 0 : totalMinutes * 60 / count;
+        }
+
+        long percentileSeconds(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return ParkingMetrics.bucketUpperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    static class Result {
+        long arrivals;
+        long parked;
+        long lotFull;
+        long balked;
+        long exits;
+        long events;
+        long allotNanos;
+        long walkDistance;
+        final WaitStats entryWait = new WaitStats();
+        final WaitStats exitWait = new WaitStats();
+        long wallNanos;
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+    private final Random traffic;
+    private final Random gateChoice;
+    private final double peakPerMinute;
+    private final double horizon;
+
+    private final List<GateLocation> gateLocations = new ArrayList<>();
+    private final EntryGate[] entryGates;
+    private final ExitGate[] exitGates;
+    private final Gate[] entryQueues;
+    private final Gate[] exitQueues;
+    private final Result result = new Result();
+    private int vehicleIds;
+
+    ParkingLotSimulator(StrategyFactory factory, int levels, int slotsPerLevel, int gates, int days,
+            double peakPerMinute, long seed) {
+        this.traffic = new Random(seed);
+        this.gateChoice = new Random(seed + 1);
+        this.peakPerMinute = peakPerMinute;
+        this.horizon = days * 24 * 60.0;
+
+        // Same layout as ParkingSpace, with the slot strategy under test.
+        SlotStore twoWheelerStore = new SlotStore(VehicleType.TWO_WHEELER, levels * slotsPerLevel);
+        SlotStore fourWheelerStore = new SlotStore(VehicleType.FOUR_WHEELER, levels * slotsPerLevel);
+        for (int level = 0; level < levels; level++) {
+            for (int position = 0; position < slotsPerLevel; position++) {
+                twoWheelerStore.add(1, level, position);
+                fourWheelerStore.add(2, level, position);
+            }
+        }
+        List<ParkingSlot> twoWheelerSlots = twoWheelerStore.asList();
+        List<ParkingSlot> fourWheelerSlots = fourWheelerStore.asList();
+        for (int g = 0; g < gates; g++) {
+            gateLocations.add(new GateLocation(0, (2 * g + 1) * slotsPerLevel / (2 * gates)));
+        }
+        ParkingSlotManager slotManager = new ParkingSlotManager(twoWheelerSlots, fourWheelerSlots,
+                factory.create(twoWheelerSlots, fourWheelerSlots, gateLocations));
+        entryGates = new EntryGate[gates];
+        exitGates = new ExitGate[gates];
+        entryQueues = new Gate[gates];
+        exitQueues = new Gate[gates];
+        for (int g = 0; g < gates; g++) {
+            entryGates[g] = new EntryGate(slotManager, g);
+            exitGates[g] = new ExitGate(slotManager, new MinuteBasedStrategy());
+            entryQueues[g] = new Gate();
+            exitQueues[g] = new Gate();
+        }
+    }
+
+    // Share of the peak arrival rate at a given minute: weekday morning and evening rushes with a
+    // lunchtime bump, a flatter weekend afternoon, and a trickle overnight.
+    static double rushHourCurve(double minute) {
+        int day = (int) (minute / (24 * 60)) % 7;
+        double hour = (minute % (24 * 60)) / 60;
+        double curve;
+        if (day >= 5) {
+            curve = 0.1 + 0.5 * bump(hour, 14, 3);
+        } else {
+            curve = 0.1 + 0.9 * bump(hour, 9, 1.5) + 0.6 * bump(hour, 18, 2) + 0.3 * bump(hour, 13, 2);
+        }
+        return Math.min(1, curve);
+    }
+
+    private static double bump(double hour, double centre, double width) {
+        double x = (hour - centre) / width;
+        return Math.exp(-x * x);
+    }
+
+    private void schedule(double time, int kind, int gate, Car car) {
+        if (time <= horizon) {
+            events.add(new Event(time, sequence++, kind, gate, car));
+        }
+    }
+
+    private void scheduleNextArrival(double now) {
+        double t = now;
+        do {
+            t += -Math.log(1 - traffic.nextDouble()) / peakPerMinute;
+        } while (traffic.nextDouble() >= rushHourCurve(t));
+        // Most stays are errands, some are a working day.
+        double meanStay = (traffic.nextInt(10) < 7) ? 90 : 480;
+        double stay = Math.max(1, -Math.log(1 - traffic.nextDouble()) * meanStay);
+        VehicleType type = (traffic.nextInt(10) < 3) ? VehicleType.TWO_WHEELER : VehicleType.FOUR_WHEELER;
+        schedule(t, ARRIVAL, -1, new Car(new Vehicle(++vehicleIds, type), stay));
+    }
+
+    Result run() {
+        long start = System.nanoTime();
+        scheduleNextArrival(0);
+        Event event;
+        while ((event = events.poll()) != null) {
+            result.events++;
+            double now = event.time;
+            switch (event.kind) {
+                case ARRIVAL: {
+                    result.arrivals++;
+                    scheduleNextArrival(now);
+                    int g = gateChoice.nextInt(entryQueues.length);
+                    if (entryQueues[g].queue.size() >= MAX_GATE_QUEUE) {
+                        result.balked++;
+                    } else {
+                        join(entryQueues[g], g, event.car, now, ENTRY_DONE, ENTRY_SERVICE_MINUTES, result.entryWait);
+                    }
+                    break;
+                }
+                case ENTRY_DONE: {
+                    Car car = event.car;
+                    long allotStart = System.nanoTime();
+                    car.ticket = entryGates[event.gate].allotParkingSpot(car.vehicle, (int) now);
+                    result.allotNanos += System.nanoTime() - allotStart;
+                    if (car.ticket == null) {
+                        result.lotFull++;
+                    } else {
+                        result.parked++;
+                        result.walkDistance += gateLocations.get(event.gate).distanceTo(car.ticket.parkingSlot);
+                        schedule(now + car.stayMinutes, DEPARTURE, -1, car);
+                    }
+                    next(entryQueues[event.gate], event.gate, now, ENTRY_DONE, ENTRY_SERVICE_MINUTES, result.entryWait);
+                    break;
+                }
+                case DEPARTURE: {
+                    int g = gateChoice.nextInt(exitQueues.length);
+                    join(exitQueues[g], g, event.car, now, EXIT_DONE, EXIT_SERVICE_MINUTES, result.exitWait);
+                    break;
+                }
+                case EXIT_DONE: {
+                    exitGates[event.gate].generateBill(event.car.ticket, (int) now);
+                    result.exits++;
+                    next(exitQueues[event.gate], event.gate, now, EXIT_DONE, EXIT_SERVICE_MINUTES, result.exitWait);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown event " + event.kind);
+            }
+        }
+        result.wallNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void join(Gate gate, int gateId, Car car, double now, int doneKind, double service, WaitStats waits) {
+        car.queuedAt = now;
+        gate.queue.add(car);
+        if (!gate.busy) {
+            next(gate, gateId, now, doneKind, service, waits);
+        }
+    }
+
+    private void next(Gate gate, int gateId, double now, int doneKind, double service, WaitStats waits) {
+        Car car = gate.queue.poll();
+        gate.busy = (car != null);
+        if (car != null) {
+            waits.record(now - car.queuedAt);
+            schedule(now + service, doneKind, gateId, car);
+        }
+    }
+
+    public static void main(String[] args) {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int levels = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int slotsPerLevel = args.length > 2 ? Integer.parseInt(args[2]) : 250;
+        double peakPerMinute = args.length > 3 ? Double.parseDouble(args[3]) : 12;
+
+        Map<String, StrategyFactory> strategies = new LinkedHashMap<>();
+        strategies.put("linear", (two, four, gates) -> new NearestSlotStrategy());
+        strategies.put("indexed", (two, four, gates) -> new FreeSlotIndexStrategy(two, four));
+        strategies.put("gate-aware", GateAwareSlotStrategy::new);
+        int[] gateCounts = { 1, 2, 4, 8 };
+
+        System.out.printf("%d days, %d levels x %d slots per type, peak %.1f arrivals/min%n",
+                days, levels, slotsPerLevel, peakPerMinute);
+        System.out.printf("%-10s %5s %9s %9s %7s %7s %9s %9s %9s %8s %8s %7s%n", "strategy", "gates", "arrivals",
+                "parked/d", "full%", "balk%", "entry-avg", "entry-p99", "exit-p99", "walk", "alloc-ns", "wall-ms");
+        for (int gates : gateCounts) {
+            for (Map.Entry<String, StrategyFactory> strategy : strategies.entrySet()) {
+                Result r = new ParkingLotSimulator(strategy.getValue(), levels, slotsPerLevel, gates, days,
+                        peakPerMinute, 42).run();
+                System.out.printf("%-10s %5d %9d %9.0f %6.2f%% %6.2f%% %8.1fs %8ds %8ds %8.1f %8d %7d%n",
+                        strategy.getKey(), gates, r.arrivals, r.parked / (double) days,
+                        100.0 * r.lotFull / r.arrivals, 100.0 * r.balked / r.arrivals,
+                        r.entryWait.meanSeconds(), r.entryWait.percentileSeconds(99), r.exitWait.percentileSeconds(99),
+                        r.walkDistance / (double) Math.max(1, r.parked), r.allotNanos / Math.max(1, r.parked + r.lotFull),
+                        r.wallNanos / 1_000_000);
+            }
+        }
+    }
+}
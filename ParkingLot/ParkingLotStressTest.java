@@ -0,0 +1,105 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 8 entry and 8 exit gates hammer one ParkingSpace. Every ticket's slot is recorded in a
+// shadow owner table; a slot handed out twice, a repeated ticket id, or a double bill fails the run.
+// Usage: java ParkingLotStressTest [slotsPerType] [seconds]
+public class ParkingLotStressTest {
+    public static void main(String[] args) throws InterruptedException {
+        int slotsPerType = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int gates = 8;
+
+        ParkingSpace lot = new ParkingSpace(slotsPerType, gates, gates);
+        Map<VehicleType, AtomicReferenceArray<Vehicle>> owners = new EnumMap<>(VehicleType.class);
+        for (VehicleType type : VehicleType.values()) {
+            owners.put(type, new AtomicReferenceArray<>(slotsPerType + 1));
+        }
+        Set<Integer> ticketIds = ConcurrentHashMap.newKeySet();
+        ConcurrentLinkedQueue<Ticket> parked = new ConcurrentLinkedQueue<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong entries = new AtomicLong();
+        AtomicLong exits = new AtomicLong();
+        AtomicLong lotFull = new AtomicLong();
+        AtomicInteger vehicleIds = new AtomicInteger();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch entriesDone = new CountDownLatch(gates);
+        CountDownLatch done = new CountDownLatch(2 * gates);
+
+        for (int g = 0; g < gates; g++) {
+            EntryGate entryGate = lot.getEntryGate(g);
+            ExitGate exitGate = lot.getExitGate(g);
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    VehicleType type = random.nextBoolean() ? VehicleType.TWO_WHEELER : VehicleType.FOUR_WHEELER;
+                    Vehicle vehicle = new Vehicle(vehicleIds.incrementAndGet(), type);
+                    Ticket ticket = entryGate.allotParkingSpot(vehicle, 0);
+                    if (ticket == null) {
+                        lotFull.incrementAndGet();
+                        Thread.yield();
+                        continue;
+                    }
+                    if (!ticketIds.add(ticket.ticketId)) {
+                        failures.add("duplicate ticket id " + ticket.ticketId);
+                    }
+                    if (!owners.get(type).compareAndSet(ticket.parkingSlot.getId(), null, vehicle)) {
+                        failures.add("slot " + type + "#" + ticket.parkingSlot.getId() + " given to two vehicles");
+                    }
+                    entries.incrementAndGet();
+                    parked.add(ticket);
+                }
+                entriesDone.countDown();
+                done.countDown();
+            }, "entry-" + g).start();
+
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (entriesDone.getCount() > 0 || !parked.isEmpty()) {
+                    Ticket ticket = parked.poll();
+                    if (ticket == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    // Clear the shadow owner first: once billed, the slot may be reassigned immediately.
+                    ParkingSlot slot = ticket.parkingSlot;
+                    owners.get(slot.getVehicleType()).set(slot.getId(), null);
+                    if (exitGate.generateBill(ticket, 30) == null) {
+                        failures.add("ticket " + ticket.ticketId + " could not be billed");
+                    }
+                    if (random.nextInt(100) == 0 && exitGate.generateBill(ticket, 31) != null) {
+                        failures.add("ticket " + ticket.ticketId + " billed twice");
+                    }
+                    exits.incrementAndGet();
+                }
+                done.countDown();
+            }, "exit-" + g).start();
+        }
+        done.await();
+
+        // With every car gone, each slot must be claimable exactly once more.
+        for (VehicleType type : VehicleType.values()) {
+            int claimed = 0;
+            while (lot.getEntryGate().allotParkingSpot(new Vehicle(-1, type), 0) != null) {
+                claimed++;
+            }
+            if (claimed != slotsPerType) {
+                failures.add(type + ": " + claimed + " slots free after the run, expected " + slotsPerType);
+            }
+        }
+
+        System.out.println("entries=" + entries.get() + " exits=" + exits.get() + " lotFull=" + lotFull.get());
+        if (failures.isEmpty()) {
+            System.out.println("PASS: no slot or ticket id was handed out twice");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+enum ReservationStatus {
+    BOOKED,
+    REDEEMED,
+    CANCELLED
+}
+
+// A slot held for [fromTime, toTime), in minutes.
+class Reservation {
+    final int reservationId;
+    final ParkingSlot slot;
+    final int fromTime;
+    final int toTime;
+    final AtomicReference<ReservationStatus> status = new AtomicReference<>(ReservationStatus.BOOKED);
+
+    public Reservation(int reservationId, ParkingSlot slot, int fromTime, int toTime) {
+        this.reservationId = reservationId;
+        this.slot = slot;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    public ReservationStatus getStatus() {
+        return status.get();
+    }
+}
+
+// Reservations of one slot, sorted by start time in parallel arrays. They never overlap, so
+// ordering by start also orders them by end, and the only one that can overlap a window is the
+// last one starting before the window ends: a conflict check is one binary search, O(log k).
+class SlotCalendar {
+    private int[] starts = new int[4];
+    private int[] ends = new int[4];
+    private Reservation[] reservations = new Reservation[4];
+    private int size;
+
+    // Index of the last reservation starting before time, or -1.
+    private int lastStartingBefore(int time) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    public synchronized boolean isFree(int fromTime, int toTime) {
+        int before = lastStartingBefore(toTime);
+        return before < 0 || ends[before] <= fromTime;
+    }
+
+    public synchronized boolean tryBook(Reservation reservation) {
+        int before = lastStartingBefore(reservation.toTime);
+        if (before >= 0 && ends[before] > reservation.fromTime) {
+            return false;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            reservations = Arrays.copyOf(reservations, size * 2);
+        }
+        int at = before + 1;
+        System.arraycopy(starts, at, starts, at + 1, size - at);
+        System.arraycopy(ends, at, ends, at + 1, size - at);
+        System.arraycopy(reservations, at, reservations, at + 1, size - at);
+        starts[at] = reservation.fromTime;
+        ends[at] = reservation.toTime;
+        reservations[at] = reservation;
+        size++;
+        return true;
+    }
+
+    public synchronized void remove(Reservation reservation) {
+        int at = lastStartingBefore(reservation.fromTime + 1);
+        if (at >= 0 && reservations[at] == reservation) {
+            removeRange(at, at + 1);
+        }
+    }
+
+    // Reservations that ended by the given time form a prefix; drop it.
+    public synchronized void purgeBefore(int time) {
+        int count = 0;
+        while (count < size && ends[count] <= time) {
+            count++;
+        }
+        removeRange(0, count);
+    }
+
+    private void removeRange(int from, int to) {
+        System.arraycopy(starts, to, starts, from, size - to);
+        System.arraycopy(ends, to, ends, from, size - to);
+        System.arraycopy(reservations, to, reservations, from, size - to);
+        size -= to - from;
+        Arrays.fill(reservations, size, size + to - from, null);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
+
+// Advance bookings for the slots of one ParkingSlotManager. Each slot gets a SlotCalendar the first
+// time it is reserved; slots never reserved cost nothing. Walk-ins are kept off slots with a
+// reservation starting within walkInHorizonMinutes, since nobody knows when a walk-in will leave.
+// A holder may arrive up to earlyArrivalMinutes before their window, if nobody else has the slot booked then.
+//
+// Per vehicle type and quarter hour, a bitset (by the slot's place in its list, nearest first) marks
+// the slots no reservation touches in that quarter; a quarter nobody booked has no bitset. A
+// reservation goes to the nearest slot open in every quarter of its window, found by leapfrogging
+// nextSetBit across those quarters. Only when there is none is every calendar scanned for a gap
+// between other reservations. The calendar stays the authority, so a briefly stale bit costs a retry,
+// never a double booking. Quarters and calendar entries that are over are dropped at most once a
+// quarter hour, as exits move the clock on.
+class ReservationBook {
+    static final int BUCKET_MINUTES = 15;
+
+    private final Map<VehicleType, List<ParkingSlot>> slotsByType = new EnumMap<>(VehicleType.class);
+    private final Map<VehicleType, AtomicReferenceArray<SlotCalendar>> calendars = new EnumMap<>(VehicleType.class);
+    private final Map<VehicleType, int[]> indexById = new EnumMap<>(VehicleType.class);
+    private final Map<VehicleType, ConcurrentSkipListMap<Integer, HierarchicalBitSet>> openByBucket = new EnumMap<>(VehicleType.class);
+    private final AtomicInteger reservationIds = new AtomicInteger(1);
+    private final AtomicInteger purgedBefore = new AtomicInteger(Integer.MIN_VALUE);
+    private final int walkInHorizonMinutes;
+    private final int earlyArrivalMinutes;
+
+    public ReservationBook(List<ParkingSlot> twoWheelerSlots, List<ParkingSlot> fourWheelerSlots,
+            int walkInHorizonMinutes, int earlyArrivalMinutes) {
+        this.walkInHorizonMinutes = walkInHorizonMinutes;
+        this.earlyArrivalMinutes = earlyArrivalMinutes;
+        slotsByType.put(VehicleType.TWO_WHEELER, twoWheelerSlots);
+        slotsByType.put(VehicleType.FOUR_WHEELER, fourWheelerSlots);
+        for (Map.Entry<VehicleType, List<ParkingSlot>> entry : slotsByType.entrySet()) {
+            List<ParkingSlot> slots = entry.getValue();
+            int maxId = 0;
+            for (ParkingSlot slot : slots) {
+                maxId = Math.max(maxId, slot.getId());
+            }
+            int[] byId = new int[maxId + 1];
+            for (int i = 0; i < slots.size(); i++) {
+                byId[slots.get(i).getId()] = i;
+            }
+            calendars.put(entry.getKey(), new AtomicReferenceArray<>(maxId + 1));
+            indexById.put(entry.getKey(), byId);
+            openByBucket.put(entry.getKey(), new ConcurrentSkipListMap<>());
+        }
+    }
+
+    private SlotCalendar calendar(ParkingSlot slot) {
+        return calendars.get(slot.getVehicleType()).get(slot.getId());
+    }
+
+    private SlotCalendar calendarFor(ParkingSlot slot) {
+        AtomicReferenceArray<SlotCalendar> byId = calendars.get(slot.getVehicleType());
+        SlotCalendar calendar = byId.get(slot.getId());
+        if (calendar == null) {
+            byId.compareAndSet(slot.getId(), null, new SlotCalendar());
+            calendar = byId.get(slot.getId());
+        }
+        return calendar;
+    }
+
+    private static int bucketOf(int time) {
+        return Math.floorDiv(time, BUCKET_MINUTES);
+    }
+
+    // Books the nearest slot open for the whole window, else the nearest with a gap that fits it;
+    // null if every slot has a reservation overlapping the window.
+    public Reservation reserve(VehicleType type, int fromTime, int toTime) {
+        if (toTime <= fromTime) {
+            throw new IllegalArgumentException("Empty reservation window: " + fromTime + ".." + toTime);
+        }
+        List<ParkingSlot> slots = slotsByType.get(type);
+        for (int i = nextOpen(type, fromTime, toTime, 0); i >= 0; i = nextOpen(type, fromTime, toTime, i + 1)) {
+            Reservation reservation = tryReserve(slots.get(i), fromTime, toTime);
+            if (reservation != null) {
+                return reservation;
+            }
+        }
+        for (ParkingSlot slot : slots) {
+            SlotCalendar calendar = calendar(slot);
+            if (calendar != null && !calendar.isFree(fromTime, toTime)) {
+                continue;
+            }
+            Reservation reservation = tryReserve(slot, fromTime, toTime);
+            if (reservation != null) {
+                return reservation;
+            }
+        }
+        return null;
+    }
+
+    // Lowest slot index at or after start that is open in every quarter the window touches, or -1.
+    private int nextOpen(VehicleType type, int fromTime, int toTime, int start) {
+        ConcurrentSkipListMap<Integer, HierarchicalBitSet> buckets = openByBucket.get(type);
+        int size = slotsByType.get(type).size();
+        int candidate = start;
+        while (candidate < size) {
+            int agreed = candidate;
+            for (int bucket = bucketOf(fromTime); bucket <= bucketOf(toTime - 1); bucket++) {
+                HierarchicalBitSet open = buckets.get(bucket);
+                if (open != null) {
+                    candidate = open.nextSetBit(candidate);
+                    if (candidate < 0) {
+                        return -1;
+                    }
+                }
+            }
+            if (candidate == agreed) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    // The quarter bits change under the calendar's lock, so they follow its bookings in order.
+    private Reservation tryReserve(ParkingSlot slot, int fromTime, int toTime) {
+        Reservation reservation = new Reservation(reservationIds.getAndIncrement(), slot, fromTime, toTime);
+        SlotCalendar calendar = calendarFor(slot);
+        synchronized (calendar) {
+            if (!calendar.tryBook(reservation)) {
+                return null;
+            }
+            ConcurrentSkipListMap<Integer, HierarchicalBitSet> buckets = openByBucket.get(slot.getVehicleType());
+            int index = indexById.get(slot.getVehicleType())[slot.getId()];
+            for (int bucket = bucketOf(fromTime); bucket <= bucketOf(toTime - 1); bucket++) {
+                buckets.computeIfAbsent(bucket, b -> allOpen(slotsByType.get(slot.getVehicleType()).size())).clear(index);
+            }
+        }
+        return reservation;
+    }
+
+    private static HierarchicalBitSet allOpen(int size) {
+        HierarchicalBitSet open = new HierarchicalBitSet(size);
+        for (int i = 0; i < size; i++) {
+            open.set(i);
+        }
+        return open;
+    }
+
+    public boolean cancel(Reservation reservation) {
+        if (!reservation.status.compareAndSet(ReservationStatus.BOOKED, ReservationStatus.CANCELLED)) {
+            return false;
+        }
+        ParkingSlot slot = reservation.slot;
+        SlotCalendar calendar = calendarFor(slot);
+        synchronized (calendar) {
+            calendar.remove(reservation);
+            ConcurrentSkipListMap<Integer, HierarchicalBitSet> buckets = openByBucket.get(slot.getVehicleType());
+            int index = indexById.get(slot.getVehicleType())[slot.getId()];
+            for (int bucket = bucketOf(reservation.fromTime); bucket <= bucketOf(reservation.toTime - 1); bucket++) {
+                HierarchicalBitSet open = buckets.get(bucket);
+                if (open != null && calendar.isFree(bucket * BUCKET_MINUTES, (bucket + 1) * BUCKET_MINUTES)) {
+                    open.set(index);
+                }
+            }
+        }
+        return true;
+    }
+
+    // Marks the reservation used; its window stays booked so nobody else is promised the slot.
+    // Too early, too late, or early while another reservation of the slot is still running: refused.
+    boolean redeem(Reservation reservation, int time) {
+        if (time < reservation.fromTime - earlyArrivalMinutes || time >= reservation.toTime) {
+            return false;
+        }
+        if (time < reservation.fromTime && !calendarFor(reservation.slot).isFree(time, reservation.fromTime)) {
+            return false;
+        }
+        return reservation.status.compareAndSet(ReservationStatus.BOOKED, ReservationStatus.REDEEMED);
+    }
+
+    // Gives a redeemed reservation back to its holder when the arrival it was redeemed for did not get in.
+    void unredeem(Reservation reservation) {
+        reservation.status.compareAndSet(ReservationStatus.REDEEMED, ReservationStatus.BOOKED);
+    }
+
+    // Whether a walk-in arriving at the given time may take the slot.
+    public boolean isOpenForWalkIn(ParkingSlot slot, int time) {
+        SlotCalendar calendar = calendar(slot);
+        return calendar == null || calendar.isFree(time, time + walkInHorizonMinutes);
+    }
+
+    // Drops what ended before the start of the quarter 'time' falls in; once per quarter, whoever gets there first.
+    public void advanceTo(int time) {
+        int bucketStart = bucketOf(time) * BUCKET_MINUTES;
+        int purged = purgedBefore.get();
+        if (bucketStart > purged && purgedBefore.compareAndSet(purged, bucketStart)) {
+            purgeBefore(bucketStart);
+        }
+    }
+
+    // Reservations still on the calendars, over all slots.
+    int size() {
+        int size = 0;
+        for (AtomicReferenceArray<SlotCalendar> byId : calendars.values()) {
+            for (int id = 0; id < byId.length(); id++) {
+                SlotCalendar calendar = byId.get(id);
+                if (calendar != null) {
+                    size += calendar.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    public void purgeBefore(int time) {
+        for (AtomicReferenceArray<SlotCalendar> byId : calendars.values()) {
+            for (int id = 0; id < byId.length(); id++) {
+                SlotCalendar calendar = byId.get(id);
+                if (calendar != null) {
+                    calendar.purgeBefore(time);
+                }
+            }
+        }
+        for (ConcurrentSkipListMap<Integer, HierarchicalBitSet> buckets : openByBucket.values()) {
+            buckets.headMap(bucketOf(time)).clear();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// Checks the reservation lifecycle through the gates:
+// - a holder whose reserved slot is still occupied in a full lot is turned away but keeps the
+//   reservation, and gets in once a car leaves;
+// - an entry refused because the ledger write failed leaves the reservation usable too;
+// - reserve picks the nearest slot open for the whole window, packs windows into gaps once every
+//   slot has one, and gets a cancelled slot back;
+// - exits purge reservations that are over.
+// Then times reserve on a large, busy lot.
+// Usage: java ReservationTest [slots] [reservations]
+public class ReservationTest {
+    static final List<String> failures = new ArrayList<>();
+
+    static void check(boolean condition, String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    static void fullLot() {
+        ParkingSpace lot = new ParkingSpace(1, 2, 1, 1);
+        ReservationBook book = lot.getReservations();
+        Reservation reservation = book.reserve(VehicleType.FOUR_WHEELER, 100, 200);
+        // two walk-ins long before the window fill the lot, the reserved slot included
+        Ticket first = lot.getEntryGate().allotParkingSpot(new Vehicle(1, VehicleType.FOUR_WHEELER), -500);
+        Ticket second = lot.getEntryGate().allotParkingSpot(new Vehicle(2, VehicleType.FOUR_WHEELER), -500);
+        check(first != null && second != null, "full lot: walk-ins were not parked");
+
+        Vehicle holder = new Vehicle(3, VehicleType.FOUR_WHEELER);
+        Ticket refused = lot.getEntryGate().allotReservedSpot(reservation, holder, 100);
+        check(refused == null, "full lot: holder got a ticket with no free slot");
+        check(reservation.getStatus() == ReservationStatus.BOOKED,
+                "full lot: reservation is " + reservation.getStatus() + " after a refused entry");
+
+        lot.getExitGate().generateBill(first, 110);
+        Ticket admitted = lot.getEntryGate().allotReservedSpot(reservation, holder, 115);
+        check(admitted != null, "full lot: holder was not admitted after a car left");
+        check(reservation.getStatus() == ReservationStatus.REDEEMED,
+                "full lot: reservation is " + reservation.getStatus() + " after entry");
+        check(lot.getEntryGate().allotReservedSpot(reservation, new Vehicle(4, VehicleType.FOUR_WHEELER), 120) == null,
+                "full lot: a redeemed reservation was used twice");
+    }
+
+    static void ledgerFailure() throws IOException {
+        Path directory = Files.createTempDirectory("reservation-ledger");
+        TicketLedger ledger = new TicketLedger(directory, 1000, false);
+        ParkingSpace lot = new ParkingSpace(1, 2, 1, 1, ledger);
+        Reservation reservation = lot.getReservations().reserve(VehicleType.FOUR_WHEELER, 100, 200);
+        ledger.close();
+        Ticket ticket = lot.getEntryGate().allotReservedSpot(reservation, new Vehicle(1, VehicleType.FOUR_WHEELER), 100);
+        check(ticket == null, "ledger failure: ticket issued without a ledger record");
+        check(reservation.getStatus() == ReservationStatus.BOOKED,
+                "ledger failure: reservation is " + reservation.getStatus() + " after a refused entry");
+        check(reservation.slot.isAvailable(), "ledger failure: reserved slot left occupied");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    static void placement() {
+        ParkingSpace lot = new ParkingSpace(1, 3, 1, 1);
+        ReservationBook book = lot.getReservations();
+        Reservation a = book.reserve(VehicleType.TWO_WHEELER, 600, 660);
+        Reservation b = book.reserve(VehicleType.TWO_WHEELER, 600, 635);
+        Reservation c = book.reserve(VehicleType.TWO_WHEELER, 620, 700);
+        check(a.slot.getId() == 1 && b.slot.getId() == 2 && c.slot.getId() == 3,
+                "placement: windows did not go to the nearest open slots");
+        // every slot is now touched in the quarter hour 630..645: the gap 635..645 on slot 2 is found by the scan
+        Reservation gap = book.reserve(VehicleType.TWO_WHEELER, 635, 645);
+        check(gap != null && gap.slot.getId() == 2, "placement: gap between reservations not used");
+        check(book.reserve(VehicleType.TWO_WHEELER, 610, 650) == null, "placement: overlapping window booked");
+        check(book.cancel(a), "placement: cancel refused");
+        Reservation again = book.reserve(VehicleType.TWO_WHEELER, 610, 650);
+        check(again != null && again.slot.getId() == 1, "placement: cancelled slot not offered again");
+    }
+
+    static void purgeOnExit() {
+        ParkingSpace lot = new ParkingSpace(1, 10, 1, 1);
+        ReservationBook book = lot.getReservations();
+        for (int hour = 0; hour < 10; hour++) {
+            book.reserve(VehicleType.FOUR_WHEELER, hour * 60, hour * 60 + 45);
+        }
+        Ticket ticket = lot.getEntryGate().allotParkingSpot(new Vehicle(1, VehicleType.TWO_WHEELER), 0);
+        lot.getExitGate().generateBill(ticket, 5 * 60 + 10);
+        check(book.size() == 5, "purge: " + book.size() + " reservations left after an exit at 5:10, expected 5");
+    }
+
+    static void timing(int slots, int reservations) {
+        ParkingSpace lot = new ParkingSpace(1, slots, 1, 1);
+        ReservationBook book = lot.getReservations();
+        Random random = new Random(18);
+        for (int round = 0; round < 2; round++) {
+            int booked = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < reservations; r++) {
+                int from = round * 100_000 + random.nextInt(24 * 60);
+                if (book.reserve(VehicleType.FOUR_WHEELER, from, from + 30 + random.nextInt(180)) != null) {
+                    booked++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("round %d: %,d of %,d reservations on %,d slots, %,.2f us per reserve%n",
+                    round, booked, reservations, slots, nanos / 1e3 / reservations);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int slots = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int reservations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        fullLot();
+        ledgerFailure();
+        placement();
+        purgeOnExit();
+        timing(slots, reservations);
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: reservations survive refused entries and are placed and purged as expected");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
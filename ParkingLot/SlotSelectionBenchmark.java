@@ -0,0 +1,63 @@
+import java.util.*;
+
+// Entry latency of the linear NearestSlotStrategy vs FreeSlotIndexStrategy at fixed occupancy.
+// Each op parks one car in the nearest slot and lets a random parked car leave, keeping occupancy steady.
+// Usage: java SlotSelectionBenchmark [slots] [ops]
+public class SlotSelectionBenchmark {
+    interface StrategyFactory {
+        SlotSelectionStrategy create(List<ParkingSlot> twoWheelerSlots, List<ParkingSlot> fourWheelerSlots);
+    }
+
+    static long run(String name, StrategyFactory factory, int slotCount, double occupancy, int ops, long seed) {
+        List<ParkingSlot> cars = new ArrayList<>();
+        for (int i = 1; i <= slotCount; i++) {
+            cars.add(ParkingSlotFactory.createSlot(i, VehicleType.FOUR_WHEELER, 2));
+        }
+        ParkingSlotManager manager = new ParkingSlotManager(new ArrayList<>(), cars,
+                factory.create(new ArrayList<>(), cars));
+        Random random = new Random(seed);
+        Vehicle car = new Vehicle(1, VehicleType.FOUR_WHEELER);
+
+        // Fill completely, then free random slots so the free ones are scattered like a real day.
+        ParkingSlot[] parked = new ParkingSlot[slotCount];
+        int parkedCount = 0;
+        for (int i = 0; i < slotCount; i++) {
+            parked[parkedCount++] = manager.assignSlot(car);
+        }
+        int target = (int) (slotCount * occupancy);
+        while (parkedCount > target) {
+            int victim = random.nextInt(parkedCount);
+            manager.releaseSlot(parked[victim]);
+            parked[victim] = parked[--parkedCount];
+        }
+
+        long start = System.nanoTime();
+        for (int op = 0; op < ops; op++) {
+            ParkingSlot slot = manager.assignSlot(car);
+            if (slot == null) {
+                throw new IllegalStateException(name + " found no free slot");
+            }
+            parked[parkedCount++] = slot;
+            int victim = random.nextInt(parkedCount);
+            manager.releaseSlot(parked[victim]);
+            parked[victim] = parked[--parkedCount];
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        int slotCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        double[] occupancies = { 0.10, 0.90, 0.99 };
+
+        System.out.printf("%d slots, %d park+leave ops per run%n", slotCount, ops);
+        for (int round = 0; round < 3; round++) {
+            for (double occupancy : occupancies) {
+                long linear = run("linear", (two, four) -> new NearestSlotStrategy(), slotCount, occupancy, ops, round);
+                long indexed = run("indexed", FreeSlotIndexStrategy::new, slotCount, occupancy, ops, round);
+                System.out.printf("round %d occupancy %3.0f%%: linear %9.1f ns/op, indexed %6.1f ns/op%n",
+                        round, occupancy * 100, (double) linear / ops, (double) indexed / ops);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// All slots of one vehicle type as columns of primitives: rate, level, position and the id of
+// the parked vehicle (EMPTY when free). A slot is 16 bytes in four arrays instead of a slot object
+// plus an AtomicReference, and the collector traces four arrays however many slots there are.
+// Slot ids are 1-based indexes into the columns.
+class SlotStore {
+    static final int EMPTY = Integer.MIN_VALUE;
+
+    private final VehicleType type;
+    private final int[] rates;
+    private final int[] levels;
+    private final int[] positions;
+    private final AtomicIntegerArray occupants;
+    private int size;
+
+    public SlotStore(VehicleType type, int capacity) {
+        this.type = type;
+        this.rates = new int[capacity];
+        this.levels = new int[capacity];
+        this.positions = new int[capacity];
+        int[] empty = new int[capacity];
+        Arrays.fill(empty, EMPTY);
+        this.occupants = new AtomicIntegerArray(empty);
+    }
+
+    // Returns the new slot's id.
+    public int add(int rate, int level, int position) {
+        if (size == rates.length) {
+            throw new IllegalStateException("Slot store for " + type + " is full: " + size);
+        }
+        rates[size] = rate;
+        levels[size] = level;
+        positions[size] = position;
+        return ++size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ParkingSlot get(int id) {
+        return new SlotView(this, id - 1);
+    }
+
+    // Views are made on demand and hold nothing but the index, so keeping a list costs nothing per slot.
+    public List<ParkingSlot> asList() {
+        return new SlotList(this);
+    }
+
+    private static class SlotList extends AbstractList<ParkingSlot> implements RandomAccess {
+        private final SlotStore store;
+
+        SlotList(SlotStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public ParkingSlot get(int index) {
+            if (index < 0 || index >= store.size) {
+                throw new IndexOutOfBoundsException("Slot index " + index + ", size " + store.size);
+            }
+            return new SlotView(store, index);
+        }
+
+        @Override
+        public int size() {
+            return store.size;
+        }
+    }
+
+    // Flyweight ParkingSlot over one row of the store. Two views of the same row are equal.
+    private static class SlotView implements ParkingSlot {
+        private final SlotStore store;
+        private final int index;
+
+        SlotView(SlotStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+
+        // Only the vehicle id is kept; EMPTY is reserved to mean a free slot.
+        public boolean assignParkingSlot(Vehicle vehicle) {
+            if (vehicle.vehicleId == EMPTY) {
+                throw new IllegalArgumentException("Vehicle id " + EMPTY + " cannot be parked");
+            }
+            return store.occupants.compareAndSet(index, EMPTY, vehicle.vehicleId);
+        }
+
+        public void freeParkingSlot() {
+            store.occupants.set(index, EMPTY);
+        }
+
+        public boolean isAvailable() {
+            return store.occupants.get(index) == EMPTY;
+        }
+
+        public int getRate() {
+            return store.rates[index];
+        }
+
+        public int getId() {
+            return index + 1;
+        }
+
+        public VehicleType getVehicleType() {
+            return store.type;
+        }
+
+        public int getLevel() {
+            return store.levels[index];
+        }
+
+        public int getPosition() {
+            return store.positions[index];
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SlotView && ((SlotView) other).store == store && ((SlotView) other).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(store) * 31 + index;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+
+// Heap held by the slots of a city-sized lot, and the time of a full collection with them live:
+// one TwoWheelerSlot/FourWheelerSlot object per slot vs the columnar SlotStore.
+// The parked vehicles are created up front and kept by both runs, so only the slots are compared.
+// Views over the store are made on demand, so the columnar figure is the four int columns alone:
+// expect about 16 bytes/slot against about 52, a factor of ~3, not an order of magnitude.
+// Usage: java SlotStoreBenchmark [slotsPerType] [occupancyPercent]
+public class SlotStoreBenchmark {
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static long fullGcMillis() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000;
+    }
+
+    static List<ParkingSlot> objectSlots(VehicleType type, int count) {
+        List<ParkingSlot> slots = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            slots.add(ParkingSlotFactory.createSlot(id, type, 2, id / 1000, id % 1000));
+        }
+        return slots;
+    }
+
+    static List<ParkingSlot> storeSlots(VehicleType type, int count) {
+        SlotStore store = new SlotStore(type, count);
+        for (int id = 1; id <= count; id++) {
+            store.add(2, id / 1000, id % 1000);
+        }
+        return store.asList();
+    }
+
+    static void park(List<ParkingSlot> slots, Vehicle[] vehicles) {
+        for (int i = 0; i < vehicles.length; i++) {
+            slots.get(i).assignParkingSlot(vehicles[i]);
+        }
+    }
+
+    public static void main(String[] args) {
+        int slotsPerType = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int occupancy = args.length > 1 ? Integer.parseInt(args[1]) : 80;
+
+        Vehicle[][] parked = new Vehicle[VehicleType.values().length][slotsPerType * occupancy / 100];
+        for (VehicleType type : VehicleType.values()) {
+            Vehicle[] vehicles = parked[type.ordinal()];
+            for (int i = 0; i < vehicles.length; i++) {
+                vehicles[i] = new Vehicle(i + 1, type);
+            }
+        }
+        long baseline = usedHeap();
+        long baselineGc = fullGcMillis();
+        System.out.printf("%,d slots per type, %d%% parked; vehicles alone: %,d KB, full GC %d ms%n",
+                slotsPerType, occupancy, baseline / 1024, baselineGc);
+
+        for (int round = 0; round < 2; round++) {
+            long objectsHeap = 0;
+            long objectsGc = 0;
+            for (String layout : Arrays.asList("objects", "columnar")) {
+                List<List<ParkingSlot>> lot = new ArrayList<>();
+                for (VehicleType type : VehicleType.values()) {
+                    List<ParkingSlot> slots = layout.equals("objects")
+                            ? objectSlots(type, slotsPerType)
+                            : storeSlots(type, slotsPerType);
+                    park(slots, parked[type.ordinal()]);
+                    lot.add(slots);
+                }
+                long heap = usedHeap() - baseline;
+                long gc = fullGcMillis();
+                System.out.printf("round %d %-8s: slots use %,9d KB (%4.1f bytes/slot), full GC %3d ms%n",
+                        round, layout, heap / 1024, heap / (2.0 * slotsPerType), gc);
+                if (layout.equals("objects")) {
+                    objectsHeap = heap;
+                    objectsGc = gc;
+                } else {
+                    System.out.printf("round %d columnar vs objects: %.1fx less heap, %.1fx faster full GC%n",
+                            round, objectsHeap / (double) Math.max(1, heap), objectsGc / (double) Math.max(1, gc));
+                }
+                lot.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.*;
+
+// Builds a TariffPricingStrategy. Percents scale the slot's per-minute rate:
+//   new TariffBuilder().nightRate(22 * 60, 7 * 60, 50).weekendRate(120)
+//           .tier(0, 100).tier(180, 75).dailyCap(600).build()
+// Night and weekend percents multiply; tiers go by minutes parked, the rest by clock time.
+// Time is in minutes from Monday 00:00.
+class TariffBuilder {
+    private int nightStart;
+    private int nightEnd;
+    private int nightPercent = 100;
+    private int weekendPercent = 100;
+    private final TreeMap<Integer, Integer> tiers = new TreeMap<>();
+    private long dailyCapMinutes = Long.MAX_VALUE;
+
+    // [fromMinuteOfDay, toMinuteOfDay) may wrap past midnight.
+    public TariffBuilder nightRate(int fromMinuteOfDay, int toMinuteOfDay, int percent) {
+        this.nightStart = fromMinuteOfDay;
+        this.nightEnd = toMinuteOfDay;
+        this.nightPercent = percent;
+        return this;
+    }
+
+    public TariffBuilder weekendRate(int percent) {
+        this.weekendPercent = percent;
+        return this;
+    }
+
+    // From afterMinutes parked onwards, until the next tier.
+    public TariffBuilder tier(int afterMinutes, int percent) {
+        if (afterMinutes < 0) {
+            throw new IllegalArgumentException("Tier cannot start before entry: " + afterMinutes);
+        }
+        tiers.put(afterMinutes, percent);
+        return this;
+    }
+
+    // No calendar day of a stay costs more than this many minutes at the slot's plain rate.
+    public TariffBuilder dailyCap(long capMinutes) {
+        this.dailyCapMinutes = capMinutes;
+        return this;
+    }
+
+    public TariffPricingStrategy build() {
+        int[] weights = new int[TariffPricingStrategy.MINUTES_PER_WEEK];
+        for (int minute = 0; minute < weights.length; minute++) {
+            int day = minute / TariffPricingStrategy.MINUTES_PER_DAY;
+            int minuteOfDay = minute % TariffPricingStrategy.MINUTES_PER_DAY;
+            boolean night = (nightStart <= nightEnd)
+                    ? (minuteOfDay >= nightStart && minuteOfDay < nightEnd)
+                    : (minuteOfDay >= nightStart || minuteOfDay < nightEnd);
+            int weight = 100;
+            if (night) {
+                weight = weight * nightPercent / 100;
+            }
+            if (day >= 5) {
+                weight = weight * weekendPercent / 100;
+            }
+            weights[minute] = weight;
+        }
+        TreeMap<Integer, Integer> tierTable = new TreeMap<>(tiers);
+        tierTable.putIfAbsent(0, 100);
+        int[] tierStarts = new int[tierTable.size()];
+        int[] tierPercents = new int[tierTable.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> tier : tierTable.entrySet()) {
+            tierStarts[i] = tier.getKey();
+            tierPercents[i++] = tier.getValue();
+        }
+        long cap = (dailyCapMinutes >= Long.MAX_VALUE / TariffPricingStrategy.UNITS_PER_MINUTE)
+                ? Long.MAX_VALUE
+                : dailyCapMinutes * TariffPricingStrategy.UNITS_PER_MINUTE;
+        return new TariffPricingStrategy(weights, tierStarts, tierPercents, cap);
+    }
+}
+
+// Tiered, day/night and weekend pricing compiled into prefix-sum tables over one week, so a stay
+// of any length is priced with a handful of lookups instead of a walk over its minutes.
+//
+// Costs are kept in units of 1/10000 of a rate-minute (clock percent x tier percent). A stay splits into
+//   - the days it spends in the early tiers and its last partial day, walked piece by piece (a fixed
+//     number for a given tariff), and
+//   - the full days in between, all in the last tier, whose capped cost per weekday is precomputed
+//     and summed with a second prefix table.
+class TariffPricingStrategy implements PricingStrategy {
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    static final long UNITS_PER_MINUTE = 100 * 100;
+
+    private final long[] clockPrefix = new long[MINUTES_PER_WEEK + 1];
+    private final long[] cappedDayPrefix = new long[8];
+    private final int[] tierStarts;
+    private final int[] tierPercents;
+    private final long dailyCapUnits;
+
+    TariffPricingStrategy(int[] minuteWeights, int[] tierStarts, int[] tierPercents, long dailyCapUnits) {
+        this.tierStarts = tierStarts;
+        this.tierPercents = tierPercents;
+        this.dailyCapUnits = dailyCapUnits;
+        for (int minute = 0; minute < MINUTES_PER_WEEK; minute++) {
+            clockPrefix[minute + 1] = clockPrefix[minute] + minuteWeights[minute];
+        }
+        long lastPercent = tierPercents[tierPercents.length - 1];
+        for (int day = 0; day < 7; day++) {
+            long dayWeight = clockPrefix[(day + 1) * MINUTES_PER_DAY] - clockPrefix[day * MINUTES_PER_DAY];
+            cappedDayPrefix[day + 1] = cappedDayPrefix[day] + Math.min(dailyCapUnits, lastPercent * dayWeight);
+        }
+    }
+
+    @Override
+    public int calculatePrice(int startTime, int endTime, int rate) {
+        long units = priceUnits(startTime, endTime);
+        // Part-minutes of rate are charged as a whole one.
+        return Math.toIntExact((units * rate + UNITS_PER_MINUTE - 1) / UNITS_PER_MINUTE);
+    }
+
+    long priceUnits(long start, long end) {
+        if (end <= start) {
+            return 0;
+        }
+        long lastTierFrom = start + tierStarts[tierStarts.length - 1];
+        long firstUniformDay = Math.floorDiv(lastTierFrom + MINUTES_PER_DAY - 1, MINUTES_PER_DAY);
+        long lastDay = Math.floorDiv(end, MINUTES_PER_DAY);
+        if (firstUniformDay >= lastDay) {
+            return walkDays(start, start, end);
+        }
+        return walkDays(start, start, firstUniformDay * MINUTES_PER_DAY)
+                + cappedDays(lastDay) - cappedDays(firstUniformDay)
+                + walkDays(start, lastDay * MINUTES_PER_DAY, end);
+    }
+
+    // Capped cost of all full last-tier days before the given day number.
+    private long cappedDays(long day) {
+        return Math.floorDiv(day, 7) * cappedDayPrefix[7] + cappedDayPrefix[Math.floorMod(day, 7)];
+    }
+
+    // [from, to) one calendar day at a time, each day capped.
+    private long walkDays(long start, long from, long to) {
+        long units = 0;
+        while (from < to) {
+            long dayEnd = Math.min(to, (Math.floorDiv(from, MINUTES_PER_DAY) + 1) * MINUTES_PER_DAY);
+            units += Math.min(dailyCapUnits, tieredCost(start, from, dayEnd));
+            from = dayEnd;
+        }
+        return units;
+    }
+
+    private long tieredCost(long start, long from, long to) {
+        long units = 0;
+        for (int i = 0; i < tierStarts.length; i++) {
+            long tierFrom = Math.max(from, start + tierStarts[i]);
+            long tierTo = (i + 1 < tierStarts.length) ? Math.min(to, start + tierStarts[i + 1]) : to;
+            if (tierFrom < tierTo) {
+                units += tierPercents[i] * (clock(tierTo) - clock(tierFrom));
+            }
+        }
+        return units;
+    }
+
+    private long clock(long minute) {
+        return Math.floorDiv(minute, MINUTES_PER_WEEK) * clockPrefix[MINUTES_PER_WEEK]
+                + clockPrefix[Math.floorMod(minute, MINUTES_PER_WEEK)];
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// A ticket that was open (car still parked) at the time of the last event.
+class OpenTicket {
+    final int ticketId;
+    final int vehicleId;
+    final VehicleType vehicleType;
+    final int slotId;
+    final int startTime;
+
+    public OpenTicket(int ticketId, int vehicleId, VehicleType vehicleType, int slotId, int startTime) {
+        this.ticketId = ticketId;
+        this.vehicleId = vehicleId;
+        this.vehicleType = vehicleType;
+        this.slotId = slotId;
+        this.startTime = startTime;
+    }
+}
+
+// Event-sourced record of every allot and exit. Events go to a compact binary log; every
+// snapshotEvery events the open tickets are written to a snapshot and the log starts over, so
+// recovery reads one snapshot plus at most snapshotEvery events however long the lot has run.
+//
+// Log: [generation] then 22-byte records [type][ticketId][vehicleId][vehicleType][slotId][time][crc32].
+// Records from an older generation, or with a bad CRC (torn write), end the replay.
+class TicketLedger implements Closeable {
+    private static final byte ALLOT = 1;
+    private static final byte EXIT = 2;
+    private static final int RECORD_BYTES = 22;
+    private static final int SNAPSHOT_MAGIC = 0x504b4c53; // "PKLS"
+
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final int snapshotEvery;
+    private final boolean fsyncEachEvent;
+    private final FileChannel log;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final Map<Integer, OpenTicket> openTickets = new HashMap<>();
+    private int generation;
+    private int nextTicketId = 1;
+    private int eventsSinceSnapshot;
+    private long logPosition;
+
+    // fsyncEachEvent=false survives a process crash (the OS has the bytes) but not a power cut.
+    public TicketLedger(Path directory, int snapshotEvery, boolean fsyncEachEvent) throws IOException {
+        Files.createDirectories(directory);
+        this.logPath = directory.resolve("tickets.log");
+        this.snapshotPath = directory.resolve("tickets.snapshot");
+        this.snapshotEvery = snapshotEvery;
+        this.fsyncEachEvent = fsyncEachEvent;
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Loads the snapshot, replays the log tail and returns the tickets still open, ordered by id.
+    public synchronized List<OpenTicket> recover() throws IOException {
+        openTickets.clear();
+        int snapshotGeneration = loadSnapshot();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        boolean replayLog = log.size() >= 4 && log.read(header, 0) == 4 && header.getInt(0) == snapshotGeneration;
+        generation = snapshotGeneration;
+        long position = 4;
+        if (replayLog) {
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, log.size() - 4));
+            log.read(tail, 4);
+            tail.flip();
+            while (tail.remaining() >= RECORD_BYTES) {
+                int start = tail.position();
+                CRC32 crc = new CRC32();
+                crc.update(tail.array(), start, RECORD_BYTES - 4);
+                if (tail.getInt(start + RECORD_BYTES - 4) != (int) crc.getValue()) {
+                    break;
+                }
+                byte type = tail.get();
+                int ticketId = tail.getInt();
+                int vehicleId = tail.getInt();
+                byte vehicleType = tail.get();
+                int slotId = tail.getInt();
+                int time = tail.getInt();
+                tail.getInt();
+                if (type == ALLOT) {
+                    openTickets.put(ticketId, new OpenTicket(ticketId, vehicleId, VehicleType.values()[vehicleType], slotId, time));
+                    nextTicketId = Math.max(nextTicketId, ticketId + 1);
+                } else if (type == EXIT) {
+                    openTickets.remove(ticketId);
+                } else {
+                    break;
+                }
+                eventsSinceSnapshot++;
+                position += RECORD_BYTES;
+            }
+            // Cut a torn tail so new records follow the last good one.
+            log.truncate(position);
+            logPosition = position;
+        } else {
+            startLog();
+        }
+        List<OpenTicket> result = new ArrayList<>(openTickets.values());
+        result.sort(Comparator.comparingInt(t -> t.ticketId));
+        return result;
+    }
+
+    public synchronized int getNextTicketId() {
+        return nextTicketId;
+    }
+
+    public synchronized void recordAllot(Ticket ticket, Vehicle vehicle) throws IOException {
+        append(ALLOT, ticket.ticketId, vehicle.vehicleId, (byte) vehicle.vehicleType.ordinal(),
+                ticket.parkingSlot.getId(), ticket.startTime);
+        openTickets.put(ticket.ticketId, new OpenTicket(ticket.ticketId, vehicle.vehicleId, vehicle.vehicleType,
+                ticket.parkingSlot.getId(), ticket.startTime));
+        nextTicketId = Math.max(nextTicketId, ticket.ticketId + 1);
+        maybeSnapshot();
+    }
+
+    public synchronized void recordExit(Ticket ticket, int endTime) throws IOException {
+        append(EXIT, ticket.ticketId, 0, (byte) 0, ticket.parkingSlot.getId(), endTime);
+        openTickets.remove(ticket.ticketId);
+        maybeSnapshot();
+    }
+
+    private void append(byte type, int ticketId, int vehicleId, byte vehicleType, int slotId, int time) throws IOException {
+        record.clear();
+        record.put(type).putInt(ticketId).putInt(vehicleId).put(vehicleType).putInt(slotId).putInt(time);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_BYTES - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            logPosition += log.write(record, logPosition);
+        }
+        if (fsyncEachEvent) {
+            log.force(false);
+        }
+        eventsSinceSnapshot++;
+    }
+
+    private void maybeSnapshot() throws IOException {
+        if (eventsSinceSnapshot >= snapshotEvery) {
+            snapshot();
+        }
+    }
+
+    // Writes the open tickets under the next generation, then restarts the log for that generation.
+    public synchronized void snapshot() throws IOException {
+        int nextGeneration = generation + 1;
+        Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(nextGeneration);
+            out.writeInt(nextTicketId);
+            out.writeInt(openTickets.size());
+            for (OpenTicket ticket : openTickets.values()) {
+                out.writeInt(ticket.ticketId);
+                out.writeInt(ticket.vehicleId);
+                out.writeByte(ticket.vehicleType.ordinal());
+                out.writeInt(ticket.slotId);
+                out.writeInt(ticket.startTime);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = nextGeneration;
+        startLog();
+    }
+
+    private int loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a ticket snapshot: " + snapshotPath);
+            }
+            int snapshotGeneration = in.readInt();
+            nextTicketId = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                OpenTicket ticket = new OpenTicket(in.readInt(), in.readInt(), VehicleType.values()[in.readByte()],
+                        in.readInt(), in.readInt());
+                openTickets.put(ticket.ticketId, ticket);
+            }
+            return snapshotGeneration;
+        }
+    }
+
+    private void startLog() throws IOException {
+        log.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, generation);
+        log.write(header, 0);
+        log.force(false);
+        logPosition = 4;
+        eventsSinceSnapshot = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.force(false);
+        log.close();
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+// Many threads post equal-split expenses through one BalanceSheetController at once. Money must be
+// conserved: payments add up to the expenses posted, each user's payment equals their own share plus
+// what they get back minus what they owe, and every pairwise balance mirrors the other side's.
+// The same expenses are then replayed on one thread and every figure must match.
+// Usage: java BalanceSheetStressTest [threads] [users] [expensesPerThread]
+public class BalanceSheetStressTest {
+    // Posts expenses from every thread at once; with disjoint=true each thread keeps to its own users.
+    static long run(List<User> users, int threads, int perThread, boolean disjoint, List<List<ExpenseSpec>> posted)
+            throws InterruptedException {
+        BalanceSheetController controller = new BalanceSheetController();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        int share = users.size() / threads;
+        for (int t = 0; t < threads; t++) {
+            List<ExpenseSpec> mine = new ArrayList<>(perThread);
+            posted.add(mine);
+            int from = disjoint ? t * share : 0;
+            int to = disjoint ? from + share : users.size();
+            Random random = new Random(t);
+            for (int i = 0; i < perThread; i++) {
+                mine.add(SplitwiseFixtures.randomEqualSpec(i, from + 1, to, 8, 10_000_000, random));
+            }
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (ExpenseSpec expense : mine) {
+                    SplitwiseFixtures.post(controller, users, expense);
+                }
+                done.countDown();
+            }, "poster-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    static void checkConservation(List<User> users, List<List<ExpenseSpec>> posted, List<String> failures) {
+        long expected = 0;
+        for (List<ExpenseSpec> expenses : posted) {
+            for (ExpenseSpec expense : expenses) {
+                expected += expense.total;
+            }
+        }
+        long paid = 0;
+        Map<Long, User> byId = new HashMap<>();
+        for (User user : users) {
+            byId.put((long) user.userId, user);
+        }
+        for (User user : users) {
+            UserExpenseBalanceSheet sheet = user.getUserExpenseBalanceSheet();
+            paid += sheet.getTotalPayment();
+            if (sheet.getTotalPayment() != sheet.getTotalYourExpense() + sheet.getTotalYouGetBack() - sheet.getTotalYouOwe()) {
+                failures.add("user " + user.getUserId() + " totals do not add up");
+            }
+            sheet.forEachBalance((otherUserId, getBack, owe) -> {
+                UserExpenseBalanceSheet theirs = byId.get(otherUserId).getUserExpenseBalanceSheet();
+                if (!theirs.hasBalanceWith(user.userId) || getBack != theirs.getAmountOwe(user.userId)
+                        || owe != theirs.getAmountGetBack(user.userId)) {
+                    failures.add("users " + user.getUserId() + " and " + otherUserId + " disagree");
+                }
+            });
+        }
+        if (paid != expected) {
+            failures.add("payments add up to " + paid + ", expenses to " + expected);
+        }
+    }
+
+    static void checkAgainstReplay(List<User> users, List<List<ExpenseSpec>> posted, List<String> failures) {
+        List<User> replayed = SplitwiseFixtures.newUsers(users.size());
+        BalanceSheetController controller = new BalanceSheetController();
+        for (List<ExpenseSpec> expenses : posted) {
+            for (ExpenseSpec expense : expenses) {
+                SplitwiseFixtures.post(controller, replayed, expense);
+            }
+        }
+        for (int i = 0; i < users.size(); i++) {
+            UserExpenseBalanceSheet actual = users.get(i).getUserExpenseBalanceSheet();
+            UserExpenseBalanceSheet expected = replayed.get(i).getUserExpenseBalanceSheet();
+            if (!SplitwiseFixtures.sameSheet(actual, expected) || actual.getBalanceCount() != expected.getBalanceCount()) {
+                failures.add("user " + users.get(i).getUserId() + " differs from the single-threaded replay");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int perThread = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        List<String> failures = new ArrayList<>();
+
+        for (boolean disjoint : new boolean[] { false, true }) {
+            List<User> users = SplitwiseFixtures.newUsers(userCount);
+            List<List<ExpenseSpec>> posted = new ArrayList<>();
+            long nanos = run(users, threads, perThread, disjoint, posted);
+            checkConservation(users, posted, failures);
+            checkAgainstReplay(users, posted, failures);
+            System.out.printf("%d threads, %s users: %,.0f expenses/s%n", threads,
+                    disjoint ? "disjoint" : "shared", threads * (double) perThread * 1e9 / nanos);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: money was conserved under concurrent updates");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
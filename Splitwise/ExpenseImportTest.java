@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Writes random equal, unequal and percentage expenses to a CSV and a binary file, imports each file
+// with ExpenseImporter and checks every balance sheet, pairwise balances included, against posting the
+// same expenses one by one through BalanceSheetController. A file with a bad record must leave the
+// balance sheets untouched.
+// Usage: java ExpenseImportTest [expenses] [users]
+public class ExpenseImportTest {
+    static ExpenseSpec randomRecord(int expenseId, int userCount, Random random) {
+        ExpenseSpec record = SplitwiseFixtures.randomEqualSpec(expenseId, 1, userCount, 8, 5_000_000, random);
+        int kind = random.nextInt(10);
+        SplitwiseFixtures.randomShares(record,
+                kind < 6 ? ExpenseSplitType.EQUAL : kind < 8 ? ExpenseSplitType.UNEQUAL : ExpenseSplitType.PERCENTAGE, random);
+        return record;
+    }
+
+    static void writeCsv(Path file, List<ExpenseSpec> records) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# expenseId,paidBy,splitType,total,spendees\n");
+            for (ExpenseSpec record : records) {
+                StringBuilder line = new StringBuilder();
+                line.append(record.expenseId).append(',').append(record.paidBy).append(',')
+                        .append(record.type).append(',').append(Money.format(record.total)).append(',');
+                for (int i = 0; i < record.userIds.length; i++) {
+                    if (i > 0) {
+                        line.append(';');
+                    }
+                    line.append(record.userIds[i]);
+                    if (record.type != ExpenseSplitType.EQUAL) {
+                        line.append(':').append(Money.format(record.values[i]));
+                    }
+                }
+                out.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    static void writeBinary(Path file, List<ExpenseSpec> records) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (ExpenseSpec record : records) {
+                out.writeInt(record.expenseId);
+                out.writeInt(record.paidBy);
+                out.writeByte(record.type.ordinal());
+                out.writeLong(record.total);
+                out.writeShort(record.userIds.length);
+                for (int i = 0; i < record.userIds.length; i++) {
+                    out.writeInt(record.userIds[i]);
+                    out.writeLong(record.values[i]);
+                }
+            }
+        }
+    }
+
+    static String compare(List<User> actual, List<User> expected) {
+        for (int i = 0; i < actual.size(); i++) {
+            UserExpenseBalanceSheet a = actual.get(i).getUserExpenseBalanceSheet();
+            UserExpenseBalanceSheet e = expected.get(i).getUserExpenseBalanceSheet();
+            if (!SplitwiseFixtures.sameSheet(a, e) || a.getBalanceCount() != e.getBalanceCount()) {
+                return "user " + actual.get(i).getUserId() + " differs";
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int expenseCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        Random random = new Random(23);
+        List<String> failures = new ArrayList<>();
+
+        List<ExpenseSpec> records = new ArrayList<>(expenseCount);
+        for (int e = 0; e < expenseCount; e++) {
+            records.add(randomRecord(e, userCount, random));
+        }
+        Path csv = Files.createTempFile("expenses", ".csv");
+        Path binary = Files.createTempFile("expenses", ".bin");
+        try {
+            writeCsv(csv, records);
+            writeBinary(binary, records);
+            System.out.printf("%,d expenses over %,d users: CSV %,d KB, binary %,d KB%n", expenseCount, userCount,
+                    Files.size(csv) / 1024, Files.size(binary) / 1024);
+
+            List<User> expected = SplitwiseFixtures.newUsers(userCount);
+            BalanceSheetController sequential = new BalanceSheetController();
+            long start = System.nanoTime();
+            for (ExpenseSpec record : records) {
+                SplitwiseFixtures.post(sequential, expected, record);
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("one by one (in memory): %,12.0f expenses/s%n", expenseCount * 1e9 / nanos);
+
+            for (int round = 0; round < 2; round++) {
+                for (String format : Arrays.asList("csv", "binary")) {
+                    List<User> users = SplitwiseFixtures.newUsers(userCount);
+                    ExpenseImporter importer = new ExpenseImporter(new BalanceSheetController(), users);
+                    start = System.nanoTime();
+                    long imported = format.equals("csv") ? importer.importCsv(csv) : importer.importBinary(binary);
+                    nanos = System.nanoTime() - start;
+                    System.out.printf("round %d import %-6s: %,12.0f expenses/s%n", round, format, imported * 1e9 / nanos);
+                    String failure = imported != expenseCount
+                            ? "imported " + imported + " of " + expenseCount : compare(users, expected);
+                    if (failure != null) {
+                        failures.add(format + ": " + failure);
+                    }
+                }
+            }
+
+            // An unequal split whose shares miss the total, near the end of the file.
+            records.add(expenseCount - 10, randomRecord(expenseCount, userCount, random));
+            ExpenseSpec bad = records.get(expenseCount - 10);
+            bad.type = ExpenseSplitType.UNEQUAL;
+            Arrays.fill(bad.values, 1);
+            writeCsv(csv, records);
+            List<User> users = SplitwiseFixtures.newUsers(userCount);
+            try {
+                new ExpenseImporter(new BalanceSheetController(), users).importCsv(csv);
+                failures.add("a bad record was imported");
+            } catch (IllegalArgumentException e) {
+                System.out.println("bad record rejected: " + e.getMessage());
+                for (User user : users) {
+                    UserExpenseBalanceSheet sheet = user.getUserExpenseBalanceSheet();
+                    if (sheet.getTotalPayment() != 0 || sheet.getBalanceCount() != 0) {
+                        failures.add("a rejected import changed user " + user.getUserId());
+                        break;
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(binary);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: imports match posting one by one");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
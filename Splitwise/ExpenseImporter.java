@@ -0,0 +1,375 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+// Loads historical expenses in bulk instead of posting them through BalanceSheetController one by one.
+//
+// One thread reads the file in batches; pool workers parse each record, split it with the SplitFactory
+// strategies and add the result to their own partial totals (per-user sums plus a map of pairwise
+// amounts), so workers never share or lock anything. When the file is done the per-thread partials are
+// merged pairwise with fork-join and the balance sheets get one update per user and one per pair.
+// Nothing is applied until every record has parsed, so a bad record leaves the balance sheets untouched.
+//
+// CSV, one expense per line ('#' lines and blank lines are skipped):
+//   expenseId,paidBy,EQUAL,300.00,1;2;3
+//   expenseId,paidBy,UNEQUAL,300.00,1:50.00;2:250.00
+//   expenseId,paidBy,PERCENTAGE,300.00,1:25.00;2:75.00
+// Binary, big-endian, record after record:
+//   int expenseId, int paidBy, byte splitType (ordinal), long totalAmount (minor units),
+//   unsigned short count, count x (int userId, long value); value is unused for EQUAL, the amount in
+//   minor units for UNEQUAL and basis points for PERCENTAGE.
+class ExpenseImporter {
+    static final int BINARY_HEADER_BYTES = 19;
+    static final int BINARY_ENTRY_BYTES = 12;
+    private static final int BATCH = 4096;
+
+    private final BalanceSheetController controller;
+    private final User[] users;
+    private final Map<Integer, Integer> indexById = new HashMap<>();
+    private final int parallelism;
+
+    public ExpenseImporter(BalanceSheetController controller, Collection<User> users) {
+        this(controller, users, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExpenseImporter(BalanceSheetController controller, Collection<User> users, int parallelism) {
+        this.controller = controller;
+        this.users = users.toArray(new User[0]);
+        for (int i = 0; i < this.users.length; i++) {
+            indexById.put(this.users[i].userId, i);
+        }
+        this.parallelism = parallelism;
+    }
+
+    // Sums for one worker thread: per user by index, and what 'owes' owes 'paidBy' keyed by pair(paidBy, owes).
+    private static final class Partial {
+        final long[] payment;
+        final long[] yourExpense;
+        final long[] youGetBack;
+        final long[] youOwe;
+        final LongColumnMap pairs = new LongColumnMap(1 << 12, 1);
+        final Map<ExpenseSplitType, ExpenseSplit> splitters = new EnumMap<>(ExpenseSplitType.class);
+        long expenses;
+
+        Partial(int users) {
+            payment = new long[users];
+            yourExpense = new long[users];
+            youGetBack = new long[users];
+            youOwe = new long[users];
+        }
+
+        void merge(Partial other) {
+            for (int i = 0; i < payment.length; i++) {
+                payment[i] += other.payment[i];
+                yourExpense[i] += other.yourExpense[i];
+                youGetBack[i] += other.youGetBack[i];
+                youOwe[i] += other.youOwe[i];
+            }
+            pairs.addAll(other.pairs);
+            expenses += other.expenses;
+        }
+    }
+
+    // Never serialized; ForkJoinTask is Serializable only by inheritance.
+    @SuppressWarnings("serial")
+    private static final class MergeTask extends RecursiveTask<Partial> {
+        private final List<Partial> partials;
+        private final int from;
+        private final int to;
+
+        MergeTask(List<Partial> partials, int from, int to) {
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from == 1) {
+                return partials.get(from);
+            }
+            int mid = (from + to) >>> 1;
+            MergeTask left = new MergeTask(partials, from, mid);
+            left.fork();
+            Partial right = new MergeTask(partials, mid, to).compute();
+            Partial merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+
+    static long pair(int paidBy, int owes) {
+        return ((long) paidBy << 32) | owes;
+    }
+
+    // State of one import: the pool, every worker's partial, and the first failure.
+    private final class Run implements AutoCloseable {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final List<Partial> partials = Collections.synchronizedList(new ArrayList<>());
+        final ThreadLocal<Partial> partial = ThreadLocal.withInitial(() -> {
+            Partial created = new Partial(users.length);
+            partials.add(created);
+            return created;
+        });
+        // bounds the batches read ahead of the workers
+        final Semaphore inFlight = new Semaphore(parallelism * 4);
+        final Phaser pending = new Phaser(1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        void submit(Runnable batch) throws IOException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            }
+            pending.register();
+            pool.execute(() -> {
+                try {
+                    if (failure.get() == null) {
+                        batch.run();
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                    pending.arriveAndDeregister();
+                }
+            });
+        }
+
+        boolean failed() {
+            return failure.get() != null;
+        }
+
+        long finish() {
+            pending.arriveAndAwaitAdvance();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            if (partials.isEmpty()) {
+                return 0;
+            }
+            Partial total = pool.invoke(new MergeTask(new ArrayList<>(partials), 0, partials.size()));
+            apply(pool, total);
+            return total.expenses;
+        }
+
+        @Override
+        public void close() {
+            pool.shutdown();
+        }
+    }
+
+    // Returns the number of expenses imported.
+    public long importCsv(Path file) throws IOException {
+        try (Run run = new Run();
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            long lineNumber = 0;
+            while (!run.failed()) {
+                String[] lines = new String[BATCH];
+                int count = 0;
+                String line;
+                while (count < BATCH && (line = reader.readLine()) != null) {
+                    lines[count++] = line;
+                }
+                if (count == 0) {
+                    break;
+                }
+                long firstLine = lineNumber + 1;
+                int batchSize = count;
+                run.submit(() -> {
+                    Partial partial = run.partial.get();
+                    for (int i = 0; i < batchSize; i++) {
+                        try {
+                            addCsvLine(partial, lines[i]);
+                        } catch (RuntimeException e) {
+                            throw new IllegalArgumentException("line " + (firstLine + i) + ": " + e.getMessage(), e);
+                        }
+                    }
+                });
+                lineNumber += count;
+            }
+            return run.finish();
+        }
+    }
+
+    // Returns the number of expenses imported.
+    public long importBinary(Path file) throws IOException {
+        try (Run run = new Run();
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            long recordNumber = 0;
+            boolean end = false;
+            while (!end && !run.failed()) {
+                // whole records copied as they are; the workers decode them
+                byte[] slab = new byte[BATCH * (BINARY_HEADER_BYTES + 4 * BINARY_ENTRY_BYTES)];
+                int length = 0;
+                int count = 0;
+                while (count < BATCH) {
+                    int first = in.read();
+                    if (first < 0) {
+                        end = true;
+                        break;
+                    }
+                    if (slab.length - length < BINARY_HEADER_BYTES) {
+                        slab = Arrays.copyOf(slab, slab.length * 2);
+                    }
+                    slab[length] = (byte) first;
+                    in.readFully(slab, length + 1, BINARY_HEADER_BYTES - 1);
+                    int entries = ByteBuffer.wrap(slab, length + BINARY_HEADER_BYTES - 2, 2).getShort() & 0xFFFF;
+                    int recordBytes = BINARY_HEADER_BYTES + entries * BINARY_ENTRY_BYTES;
+                    if (slab.length - length < recordBytes) {
+                        slab = Arrays.copyOf(slab, Math.max(slab.length * 2, length + recordBytes));
+                    }
+                    in.readFully(slab, length + BINARY_HEADER_BYTES, recordBytes - BINARY_HEADER_BYTES);
+                    length += recordBytes;
+                    count++;
+                }
+                if (count == 0) {
+                    break;
+                }
+                long firstRecord = recordNumber + 1;
+                ByteBuffer records = ByteBuffer.wrap(slab, 0, length);
+                int batchSize = count;
+                run.submit(() -> {
+                    Partial partial = run.partial.get();
+                    for (int i = 0; i < batchSize; i++) {
+                        try {
+                            addBinaryRecord(partial, records);
+                        } catch (RuntimeException e) {
+                            throw new IllegalArgumentException("record " + (firstRecord + i) + ": " + e.getMessage(), e);
+                        }
+                    }
+                });
+                recordNumber += count;
+            }
+            return run.finish();
+        }
+    }
+
+    private User user(int userId) {
+        Integer index = indexById.get(userId);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown user " + userId);
+        }
+        return users[index];
+    }
+
+    private void addCsvLine(Partial partial, String line) {
+        if (line.isEmpty() || line.charAt(0) == '#') {
+            return;
+        }
+        int c1 = line.indexOf(',');
+        int c2 = line.indexOf(',', c1 + 1);
+        int c3 = line.indexOf(',', c2 + 1);
+        int c4 = line.indexOf(',', c3 + 1);
+        if (c1 < 0 || c2 < 0 || c3 < 0 || c4 < 0) {
+            throw new IllegalArgumentException("Expected 5 fields: " + line);
+        }
+        Expense expense = new Expense();
+        expense.expenseId = Integer.parseInt(line, 0, c1, 10);
+        expense.spender = user(Integer.parseInt(line, c1 + 1, c2, 10));
+        expense.splitType = ExpenseSplitType.valueOf(line.substring(c2 + 1, c3));
+        expense.totalAmount = Money.parse(line, c3 + 1, c4);
+        expense.spendees = new ArrayList<>();
+        int start = c4 + 1;
+        while (start <= line.length()) {
+            int end = line.indexOf(';', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            int colon = line.indexOf(':', start);
+            boolean hasValue = colon >= 0 && colon < end;
+            User spendee = user(Integer.parseInt(line, start, hasValue ? colon : end, 10));
+            expense.spendees.add(spendee);
+            if (expense.splitType != ExpenseSplitType.EQUAL) {
+                if (!hasValue) {
+                    throw new IllegalArgumentException("Missing share for user " + spendee.userId);
+                }
+                // "25.00" parses to 2500, which is the basis points a PERCENTAGE split expects
+                expense.splitDetails.add(new Split(spendee, Money.parse(line, colon + 1, end)));
+            }
+            start = end + 1;
+        }
+        add(partial, expense);
+    }
+
+    // Reads one record from records' position and leaves the position at the next one.
+    private void addBinaryRecord(Partial partial, ByteBuffer records) {
+        Expense expense = new Expense();
+        expense.expenseId = records.getInt();
+        expense.spender = user(records.getInt());
+        ExpenseSplitType[] types = ExpenseSplitType.values();
+        int type = records.get();
+        if (type < 0 || type >= types.length) {
+            throw new IllegalArgumentException("Unknown split type " + type);
+        }
+        expense.splitType = types[type];
+        expense.totalAmount = records.getLong();
+        int count = records.getShort() & 0xFFFF;
+        expense.spendees = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User spendee = user(records.getInt());
+            long value = records.getLong();
+            expense.spendees.add(spendee);
+            if (expense.splitType != ExpenseSplitType.EQUAL) {
+                expense.splitDetails.add(new Split(spendee, value));
+            }
+        }
+        add(partial, expense);
+    }
+
+    // Splits the expense and adds it to the partial the way updateUserExpenseBalanceSheet adds it to the sheets.
+    private void add(Partial partial, Expense expense) {
+        if (expense.spendees.isEmpty()) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " has no spendees");
+        }
+        partial.splitters.computeIfAbsent(expense.splitType, type -> new SplitFactory().getSplitObject(type))
+                .split(expense);
+        long shares = 0;
+        for (Split split : expense.splitDetails) {
+            shares += split.getAmountOwe();
+        }
+        if (shares != expense.totalAmount) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " shares add up to "
+                    + Money.format(shares) + ", not " + Money.format(expense.totalAmount));
+        }
+        int paidBy = indexById.get(expense.spender.userId);
+        partial.payment[paidBy] += expense.totalAmount;
+        for (Split split : expense.splitDetails) {
+            long amount = split.getAmountOwe();
+            int owes = indexById.get(split.getUser().userId);
+            if (owes == paidBy) {
+                partial.yourExpense[paidBy] += amount;
+            } else {
+                partial.youGetBack[paidBy] += amount;
+                partial.youOwe[owes] += amount;
+                partial.yourExpense[owes] += amount;
+                partial.pairs.add(pair(paidBy, owes), 0, amount);
+            }
+        }
+        partial.expenses++;
+    }
+
+    // One update per user with anything to add and one per pair, spread over the pool.
+    private void apply(ForkJoinPool pool, Partial total) {
+        pool.submit(() -> IntStream.range(0, users.length).parallel().forEach(i -> {
+            if (total.payment[i] != 0 || total.yourExpense[i] != 0 || total.youGetBack[i] != 0 || total.youOwe[i] != 0) {
+                controller.addTotals(users[i], total.payment[i], total.yourExpense[i], total.youGetBack[i], total.youOwe[i]);
+            }
+        })).join();
+        pool.submit(() -> IntStream.range(0, total.pairs.capacity()).parallel().forEach(slot -> {
+            if (total.pairs.isUsed(slot)) {
+                long key = total.pairs.keyAt(slot);
+                controller.addPairBalance(users[(int) (key >>> 32)], users[(int) key], total.pairs.valueAt(slot, 0));
+            }
+        })).join();
+    }
+}
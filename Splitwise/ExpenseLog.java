@@ -0,0 +1,392 @@
+import java.util.*;
+import java.util.function.IntPredicate;
+
+// An expense as it was split: who paid, who owes what, and the group it belongs to (0 for none).
+final class ExpenseRecord {
+    final int expenseId;
+    final int groupId;
+    final int paidBy;
+    final long totalAmount;
+    final int[] userIds;
+    final long[] shares;
+
+    private ExpenseRecord(int expenseId, int groupId, int paidBy, long totalAmount, int[] userIds, long[] shares) {
+        this.expenseId = expenseId;
+        this.groupId = groupId;
+        this.paidBy = paidBy;
+        this.totalAmount = totalAmount;
+        this.userIds = userIds;
+        this.shares = shares;
+    }
+
+    static ExpenseRecord of(Expense expense, int groupId) {
+        int count = expense.splitDetails.size();
+        int[] userIds = new int[count];
+        long[] shares = new long[count];
+        for (int i = 0; i < count; i++) {
+            Split split = expense.splitDetails.get(i);
+            userIds[i] = split.getUser().userId;
+            shares[i] = split.getAmountOwe();
+        }
+        return new ExpenseRecord(expense.expenseId, groupId, expense.spender.userId, expense.totalAmount, userIds, shares);
+    }
+
+    boolean touches(int userId) {
+        if (paidBy == userId) {
+            return true;
+        }
+        for (int id : userIds) {
+            if (id == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+// One entry of the log. An edit carries the expense before and after: undoing 'before' and applying
+// 'after' moves every balance sheet from the old version to the new one.
+final class ExpenseEvent {
+    enum Kind {
+        ADDED,
+        EDITED,
+        DELETED
+    }
+
+    final long sequence;
+    final long time;
+    final Kind kind;
+    final ExpenseRecord before;
+    final ExpenseRecord after;
+
+    ExpenseEvent(long sequence, long time, Kind kind, ExpenseRecord before, ExpenseRecord after) {
+        this.sequence = sequence;
+        this.time = time;
+        this.kind = kind;
+        this.before = before;
+        this.after = after;
+    }
+}
+
+// Append-only log of expense additions, edits and deletions. Each event is applied to the live
+// balance sheets through the BalanceSheetController as a delta (an edit or delete first applies the
+// old version with its amounts negated), so nothing is ever recomputed from scratch.
+//
+// The log also keeps its own projection of what its events add up to, per user and per group, and
+// copies it every snapshotInterval events. balanceSheetAt/groupBalancesAt rebuild a point in time
+// from the nearest snapshot at or before it plus the few events after, instead of from the start.
+// At most maxSnapshots copies are kept: when that many exist, every other one is dropped and the
+// interval doubles, so memory stays bounded and a rebuild replays at most 2 * events / maxSnapshots
+// events however old the point in time.
+// The projection is separate from the live sheets so expenses posted to the controller directly do
+// not leak into the snapshots.
+//
+// Events must come in time order. Pairwise balances that an edit or delete brings back to zero stay
+// in the sheets as zero entries. Removing an expense from its Group moves the group's last expense
+// into its place.
+class ExpenseLog {
+    static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+    static final int DEFAULT_MAX_SNAPSHOTS = 16;
+
+    // The log's balances after some prefix of the events.
+    private static final class Snapshot {
+        final long sequence;
+        final Map<Integer, UserExpenseBalanceSheet> users;
+        final Map<Integer, Map<Integer, UserExpenseBalanceSheet>> groups;
+
+        Snapshot(long sequence, Map<Integer, UserExpenseBalanceSheet> users,
+                 Map<Integer, Map<Integer, UserExpenseBalanceSheet>> groups) {
+            this.sequence = sequence;
+            this.users = users;
+            this.groups = groups;
+        }
+    }
+
+    private final BalanceSheetController controller;
+    private final int maxSnapshots;
+    private long snapshotInterval;
+    private final SplitFactory splitFactory = new SplitFactory();
+
+    private final List<ExpenseEvent> events = new ArrayList<>();
+    private long[] times = new long[1024];
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    private final Map<Integer, ExpenseRecord> current = new HashMap<>();
+    private final Map<Integer, Expense> currentExpenses = new HashMap<>();
+    private final Map<Integer, User> usersById = new HashMap<>();
+    private final Map<Integer, Group> groupsById = new HashMap<>();
+    // Position of each current grouped expense in its group's expenses list.
+    private final Map<Integer, Integer> groupIndex = new HashMap<>();
+    private final Map<Integer, UserExpenseBalanceSheet> projection = new HashMap<>();
+    private final Map<Integer, Map<Integer, UserExpenseBalanceSheet>> groupProjection = new HashMap<>();
+
+    public ExpenseLog(BalanceSheetController controller) {
+        this(controller, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    public ExpenseLog(BalanceSheetController controller, int snapshotInterval) {
+        this(controller, snapshotInterval, DEFAULT_MAX_SNAPSHOTS);
+    }
+
+    public ExpenseLog(BalanceSheetController controller, int snapshotInterval, int maxSnapshots) {
+        if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive: " + snapshotInterval);
+        }
+        if (maxSnapshots < 2) {
+            throw new IllegalArgumentException("Must keep at least 2 snapshots: " + maxSnapshots);
+        }
+        this.controller = controller;
+        this.snapshotInterval = snapshotInterval;
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    // The expense is split here by its splitType, so splitDetails must be empty for EQUAL and pre-filled
+    // for UNEQUAL and PERCENTAGE, as for the SplitFactory strategies. group may be null.
+    // Returns the event's sequence number.
+    public synchronized long add(Expense expense, Group group, long time) {
+        checkTime(time);
+        if (current.containsKey(expense.expenseId)) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " is already in the log");
+        }
+        ExpenseRecord after = split(expense, group);
+        addToGroup(expense, group);
+        return append(time, ExpenseEvent.Kind.ADDED, null, after, expense);
+    }
+
+    // Replaces the expense with the same expenseId, possibly moving it to another group.
+    public synchronized long edit(Expense expense, Group group, long time) {
+        checkTime(time);
+        ExpenseRecord before = current.get(expense.expenseId);
+        if (before == null) {
+            throw new IllegalArgumentException("No expense " + expense.expenseId + " to edit");
+        }
+        if (expense == currentExpenses.get(expense.expenseId)) {
+            throw new IllegalArgumentException("Edit expense " + expense.expenseId + " with a new Expense object");
+        }
+        ExpenseRecord after = split(expense, group);
+        removeFromGroup(expense.expenseId);
+        addToGroup(expense, group);
+        return append(time, ExpenseEvent.Kind.EDITED, before, after, expense);
+    }
+
+    public synchronized long delete(int expenseId, long time) {
+        checkTime(time);
+        ExpenseRecord before = current.get(expenseId);
+        if (before == null) {
+            throw new IllegalArgumentException("No expense " + expenseId + " to delete");
+        }
+        removeFromGroup(expenseId);
+        return append(time, ExpenseEvent.Kind.DELETED, before, null, null);
+    }
+
+    public synchronized int size() {
+        return events.size();
+    }
+
+    public synchronized ExpenseEvent event(long sequence) {
+        return events.get((int) (sequence - 1));
+    }
+
+    synchronized int snapshotCount() {
+        return snapshots.size();
+    }
+
+    // The user's balance sheet counting only the events at or before 'time'.
+    public synchronized UserExpenseBalanceSheet balanceSheetAt(User user, long time) {
+        int upTo = eventsUpTo(time);
+        Snapshot snapshot = snapshotBefore(upTo);
+        UserExpenseBalanceSheet base = snapshot == null ? null : snapshot.users.get(user.userId);
+        Map<Integer, UserExpenseBalanceSheet> sheets = new HashMap<>();
+        sheets.put(user.userId, base == null ? new UserExpenseBalanceSheet() : base.copy());
+        int userId = user.userId;
+        for (int i = snapshot == null ? 0 : (int) snapshot.sequence; i < upTo; i++) {
+            ExpenseEvent event = events.get(i);
+            if (event.before != null && event.before.touches(userId)) {
+                apply(event.before, -1, sheets, id -> id == userId);
+            }
+            if (event.after != null && event.after.touches(userId)) {
+                apply(event.after, 1, sheets, id -> id == userId);
+            }
+        }
+        return sheets.get(userId);
+    }
+
+    // Balance sheets of everyone with expenses in the group, counting only the group's expenses and
+    // only the events at or before 'time'. Keyed by user id.
+    public synchronized Map<Integer, UserExpenseBalanceSheet> groupBalancesAt(Group group, long time) {
+        int upTo = eventsUpTo(time);
+        Snapshot snapshot = snapshotBefore(upTo);
+        Map<Integer, UserExpenseBalanceSheet> sheets = new HashMap<>();
+        if (snapshot != null) {
+            snapshot.groups.getOrDefault(group.groupId, Collections.emptyMap())
+                    .forEach((userId, sheet) -> sheets.put(userId, sheet.copy()));
+        }
+        for (int i = snapshot == null ? 0 : (int) snapshot.sequence; i < upTo; i++) {
+            ExpenseEvent event = events.get(i);
+            if (event.before != null && event.before.groupId == group.groupId) {
+                apply(event.before, -1, sheets, id -> true);
+            }
+            if (event.after != null && event.after.groupId == group.groupId) {
+                apply(event.after, 1, sheets, id -> true);
+            }
+        }
+        return sheets;
+    }
+
+    private ExpenseRecord split(Expense expense, Group group) {
+        if (expense.spendees == null || expense.spendees.isEmpty()) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " has no spendees");
+        }
+        if (expense.splitType == ExpenseSplitType.EQUAL && !expense.splitDetails.isEmpty()) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " is already split");
+        }
+        if (group != null) {
+            groupsById.put(group.groupId, group);
+        }
+        splitFactory.getSplitObject(expense.splitType).split(expense);
+        long shares = 0;
+        for (Split split : expense.splitDetails) {
+            shares += split.getAmountOwe();
+            usersById.put(split.getUser().userId, split.getUser());
+        }
+        if (shares != expense.totalAmount) {
+            throw new IllegalArgumentException("Expense " + expense.expenseId + " shares add up to "
+                    + Money.format(shares) + ", not " + Money.format(expense.totalAmount));
+        }
+        usersById.put(expense.spender.userId, expense.spender);
+        return ExpenseRecord.of(expense, group == null ? 0 : group.groupId);
+    }
+
+    private void addToGroup(Expense expense, Group group) {
+        if (group != null) {
+            groupIndex.put(expense.expenseId, group.expenses.size());
+            group.expenses.add(expense);
+        }
+    }
+
+    // Swaps the group's last expense into the removed one's place instead of shifting the rest.
+    private void removeFromGroup(int expenseId) {
+        Group group = groupsById.get(current.get(expenseId).groupId);
+        Integer index = groupIndex.remove(expenseId);
+        if (group == null || index == null) {
+            return;
+        }
+        List<Expense> expenses = group.expenses;
+        Expense expense = currentExpenses.get(expenseId);
+        if (index >= expenses.size() || expenses.get(index) != expense) {
+            // the list was changed outside the log; fall back to a search
+            expenses.remove(expense);
+            return;
+        }
+        Expense last = expenses.remove(expenses.size() - 1);
+        if (index < expenses.size()) {
+            expenses.set(index, last);
+            groupIndex.put(last.expenseId, index);
+        }
+    }
+
+    private void checkTime(long time) {
+        if (!events.isEmpty() && time < times[events.size() - 1]) {
+            throw new IllegalArgumentException("Event at " + time + " is older than the last one at " + times[events.size() - 1]);
+        }
+    }
+
+    private long append(long time, ExpenseEvent.Kind kind, ExpenseRecord before, ExpenseRecord after, Expense expense) {
+        long sequence = events.size() + 1;
+        ExpenseEvent event = new ExpenseEvent(sequence, time, kind, before, after);
+        if (events.size() == times.length) {
+            times = Arrays.copyOf(times, times.length * 2);
+        }
+        times[events.size()] = time;
+        events.add(event);
+
+        if (before != null) {
+            post(before, -1);
+            apply(before, -1, projection, id -> true);
+            apply(before, -1, groupProjection.computeIfAbsent(before.groupId, id -> new HashMap<>()), id -> true);
+            current.remove(before.expenseId);
+            currentExpenses.remove(before.expenseId);
+        }
+        if (after != null) {
+            post(after, 1);
+            apply(after, 1, projection, id -> true);
+            apply(after, 1, groupProjection.computeIfAbsent(after.groupId, id -> new HashMap<>()), id -> true);
+            current.put(after.expenseId, after);
+            currentExpenses.put(after.expenseId, expense);
+        }
+        if (sequence % snapshotInterval == 0) {
+            if (snapshots.size() == maxSnapshots) {
+                thinSnapshots();
+            }
+            // thinning doubled the interval, which this sequence may not be a multiple of
+            if (sequence % snapshotInterval == 0) {
+                snapshots.add(snapshot(sequence));
+            }
+        }
+        return sequence;
+    }
+
+    // The record (or with sign -1 its reversal) on the live balance sheets.
+    private void post(ExpenseRecord record, long sign) {
+        List<Split> splits = new ArrayList<>(record.userIds.length);
+        for (int i = 0; i < record.userIds.length; i++) {
+            splits.add(new Split(usersById.get(record.userIds[i]), sign * record.shares[i]));
+        }
+        controller.updateUserExpenseBalanceSheet(usersById.get(record.paidBy), splits, sign * record.totalAmount);
+    }
+
+    // sign x record on the sheets of the users 'wanted' accepts, creating their sheets as needed.
+    private static void apply(ExpenseRecord record, long sign, Map<Integer, UserExpenseBalanceSheet> sheets, IntPredicate wanted) {
+        UserExpenseBalanceSheet paidBy = wanted.test(record.paidBy)
+                ? sheets.computeIfAbsent(record.paidBy, id -> new UserExpenseBalanceSheet()) : null;
+        if (paidBy != null) {
+            paidBy.setTotalPayment(paidBy.getTotalPayment() + sign * record.totalAmount);
+        }
+        for (int i = 0; i < record.userIds.length; i++) {
+            int oweId = record.userIds[i];
+            UserExpenseBalanceSheet owe = wanted.test(oweId)
+                    ? sheets.computeIfAbsent(oweId, id -> new UserExpenseBalanceSheet()) : null;
+            if (paidBy != null || owe != null) {
+                BalanceSheetController.applySplit(record.paidBy, paidBy, oweId, owe, sign * record.shares[i]);
+            }
+        }
+    }
+
+    private Snapshot snapshot(long sequence) {
+        Map<Integer, UserExpenseBalanceSheet> users = new HashMap<>();
+        projection.forEach((userId, sheet) -> users.put(userId, sheet.copy()));
+        Map<Integer, Map<Integer, UserExpenseBalanceSheet>> groups = new HashMap<>();
+        groupProjection.forEach((groupId, sheets) -> {
+            Map<Integer, UserExpenseBalanceSheet> copy = new HashMap<>();
+            sheets.forEach((userId, sheet) -> copy.put(userId, sheet.copy()));
+            groups.put(groupId, copy);
+        });
+        return new Snapshot(sequence, users, groups);
+    }
+
+    // Keeps the snapshots at multiples of twice the interval, which becomes the new interval.
+    private void thinSnapshots() {
+        snapshotInterval *= 2;
+        snapshots.removeIf(snapshot -> snapshot.sequence % snapshotInterval != 0);
+    }
+
+    // Number of events with time <= 'time'.
+    private int eventsUpTo(long time) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // The latest snapshot taken after no more than 'events' events, or null.
+    private Snapshot snapshotBefore(int events) {
+        int index = (int) (events / snapshotInterval) - 1;
+        return index < 0 ? null : snapshots.get(index);
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.*;
+
+// Adds, edits and deletes random expenses through an ExpenseLog, then checks:
+// - the live balance sheets equal posting only the surviving expenses to fresh users, and every group
+//   lists exactly its surviving expenses;
+// - the log holds no more than its maximum number of snapshots;
+// - at random points in time, every user's balanceSheetAt and every group's groupBalancesAt equal
+//   posting the expenses that were alive at that time (only the group's, for a group) from scratch.
+// Finally compares the rebuild time with and without snapshots.
+// Usage: java ExpenseLogTest [events] [users] [groups]
+public class ExpenseLogTest {
+    static class Entry {
+        final long time;
+        final int expenseId;
+        final ExpenseSpec spec;
+
+        Entry(long time, int expenseId, ExpenseSpec spec) {
+            this.time = time;
+            this.expenseId = expenseId;
+            this.spec = spec;
+        }
+    }
+
+    static ExpenseSpec randomSpec(int expenseId, int userCount, int groupCount, Random random) {
+        ExpenseSpec spec = SplitwiseFixtures.randomEqualSpec(expenseId, 1, userCount, 6, 1_000_000, random);
+        spec.groupId = random.nextInt(groupCount + 1);
+        SplitwiseFixtures.randomShares(spec, ExpenseSplitType.values()[random.nextInt(3)], random);
+        return spec;
+    }
+
+    // Fresh users with only the given expenses posted, one by one.
+    static List<User> postFromScratch(Collection<ExpenseSpec> specs, int userCount) {
+        List<User> users = SplitwiseFixtures.newUsers(userCount);
+        BalanceSheetController controller = new BalanceSheetController();
+        for (ExpenseSpec spec : specs) {
+            SplitwiseFixtures.post(controller, users, spec);
+        }
+        return users;
+    }
+
+    // The surviving version of every expense after the entries at or before 'time'.
+    static Map<Integer, ExpenseSpec> aliveAt(List<Entry> history, long time) {
+        Map<Integer, ExpenseSpec> alive = new LinkedHashMap<>();
+        for (Entry entry : history) {
+            if (entry.time > time) {
+                break;
+            }
+            if (entry.spec == null) {
+                alive.remove(entry.expenseId);
+            } else {
+                alive.put(entry.expenseId, entry.spec);
+            }
+        }
+        return alive;
+    }
+
+    static void record(ExpenseLog log, List<Group> groups, List<User> users, List<Entry> history,
+                       long time, int expenseId, ExpenseSpec spec, boolean edit) {
+        if (spec == null) {
+            log.delete(expenseId, time);
+        } else {
+            Group group = spec.groupId == 0 ? null : groups.get(spec.groupId - 1);
+            if (edit) {
+                log.edit(SplitwiseFixtures.toExpense(spec, users), group, time);
+            } else {
+                log.add(SplitwiseFixtures.toExpense(spec, users), group, time);
+            }
+        }
+        history.add(new Entry(time, expenseId, spec));
+    }
+
+    public static void main(String[] args) {
+        int eventCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int groupCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Random random = new Random(25);
+        List<String> failures = new ArrayList<>();
+
+        List<User> users = SplitwiseFixtures.newUsers(userCount);
+        List<Group> groups = new ArrayList<>();
+        for (int g = 1; g <= groupCount; g++) {
+            Group group = new Group();
+            group.groupId = g;
+            group.groupName = "group-" + g;
+            groups.add(group);
+        }
+        ExpenseLog log = new ExpenseLog(new BalanceSheetController());
+        ExpenseLog unsnapshotted = new ExpenseLog(new BalanceSheetController(), Integer.MAX_VALUE);
+        List<User> unsnapshottedUsers = SplitwiseFixtures.newUsers(userCount);
+        List<Entry> history = new ArrayList<>();
+        List<Integer> alive = new ArrayList<>();
+        Map<Integer, Integer> groupOf = new HashMap<>();
+
+        long time = 0;
+        int nextId = 1;
+        long start = System.nanoTime();
+        for (int e = 0; e < eventCount; e++) {
+            time += 1 + random.nextInt(5);
+            int action = random.nextInt(10);
+            int expenseId;
+            ExpenseSpec spec;
+            boolean edit = false;
+            if (alive.isEmpty() || action < 6) {
+                expenseId = nextId++;
+                spec = randomSpec(expenseId, userCount, groupCount, random);
+                alive.add(expenseId);
+            } else {
+                int at = random.nextInt(alive.size());
+                expenseId = alive.get(at);
+                if (action < 9) {
+                    spec = randomSpec(expenseId, userCount, groupCount, random);
+                    edit = true;
+                } else {
+                    spec = null;
+                    alive.set(at, alive.get(alive.size() - 1));
+                    alive.remove(alive.size() - 1);
+                }
+            }
+            record(log, groups, users, history, time, expenseId, spec, edit);
+            if (spec == null) {
+                unsnapshotted.delete(expenseId, time);
+            } else if (edit) {
+                unsnapshotted.edit(SplitwiseFixtures.toExpense(spec, unsnapshottedUsers), null, time);
+            } else {
+                unsnapshotted.add(SplitwiseFixtures.toExpense(spec, unsnapshottedUsers), null, time);
+            }
+            if (spec != null) {
+                groupOf.put(expenseId, spec.groupId);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%,d events (%,d expenses alive) logged twice at %,.0f events/s%n",
+                eventCount, alive.size(), 2 * eventCount * 1e9 / nanos);
+
+        // Live sheets: edits and deletes must have been undone exactly.
+        List<User> expected = postFromScratch(aliveAt(history, Long.MAX_VALUE).values(), userCount);
+        for (int i = 0; i < userCount; i++) {
+            if (!SplitwiseFixtures.sameSheet(users.get(i).getUserExpenseBalanceSheet(), expected.get(i).getUserExpenseBalanceSheet())) {
+                failures.add("live sheet of user " + (i + 1) + " differs from posting the surviving expenses");
+            }
+        }
+        for (Group group : groups) {
+            Set<Integer> listed = new HashSet<>();
+            for (Expense expense : group.expenses) {
+                listed.add(expense.expenseId);
+            }
+            Set<Integer> aliveInGroup = new HashSet<>();
+            aliveAt(history, Long.MAX_VALUE).values().stream().filter(s -> s.groupId == group.groupId)
+                    .forEach(s -> aliveInGroup.add(s.expenseId));
+            if (group.expenses.size() != listed.size() || !listed.equals(aliveInGroup)) {
+                failures.add("group " + group.groupId + " lists " + group.expenses.size() + " expenses, "
+                        + aliveInGroup.size() + " alive");
+            }
+        }
+        if (log.snapshotCount() > ExpenseLog.DEFAULT_MAX_SNAPSHOTS) {
+            failures.add("log holds " + log.snapshotCount() + " snapshots");
+        }
+
+        // Points in time, including the very start and a time between two events.
+        List<Long> checkpoints = new ArrayList<>(Arrays.asList(0L, history.get(0).time, time, Long.MAX_VALUE));
+        for (int c = 0; c < 8; c++) {
+            checkpoints.add(1 + (long) (random.nextDouble() * time));
+        }
+        for (long at : checkpoints) {
+            Map<Integer, ExpenseSpec> aliveThen = aliveAt(history, at);
+            List<User> then = postFromScratch(aliveThen.values(), userCount);
+            for (int i = 0; i < userCount; i++) {
+                if (!SplitwiseFixtures.sameSheet(log.balanceSheetAt(users.get(i), at), then.get(i).getUserExpenseBalanceSheet())) {
+                    failures.add("user " + (i + 1) + " at " + at + " differs");
+                }
+            }
+            for (Group group : groups) {
+                List<ExpenseSpec> groupSpecs = new ArrayList<>();
+                for (ExpenseSpec spec : aliveThen.values()) {
+                    if (spec.groupId == group.groupId) {
+                        groupSpecs.add(spec);
+                    }
+                }
+                List<User> groupThen = postFromScratch(groupSpecs, userCount);
+                Map<Integer, UserExpenseBalanceSheet> rebuilt = log.groupBalancesAt(group, at);
+                for (int i = 0; i < userCount; i++) {
+                    UserExpenseBalanceSheet sheet = rebuilt.getOrDefault(i + 1, new UserExpenseBalanceSheet());
+                    if (!SplitwiseFixtures.sameSheet(sheet, groupThen.get(i).getUserExpenseBalanceSheet())) {
+                        failures.add("group " + group.groupId + ", user " + (i + 1) + " at " + at + " differs");
+                    }
+                }
+            }
+        }
+        System.out.printf("%d points in time checked for %,d users and %d groups%n", checkpoints.size(), userCount, groupCount);
+
+        for (int round = 0; round < 2; round++) {
+            for (ExpenseLog subject : Arrays.asList(log, unsnapshotted)) {
+                int queries = 2_000;
+                long begin = System.nanoTime();
+                long checksum = 0;
+                for (int q = 0; q < queries; q++) {
+                    long at = time / 2 + (long) (random.nextDouble() * (time / 2));
+                    checksum += subject.balanceSheetAt(users.get(random.nextInt(userCount)), at).getTotalPayment();
+                }
+                System.out.printf("round %d %-18s: %,8.1f us per balanceSheetAt (checksum %d)%n", round,
+                        subject == log ? log.snapshotCount() + " snapshots" : "no snapshots",
+                        (System.nanoTime() - begin) / 1e3 / queries, checksum);
+            }
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: live and rebuilt balances match posting from scratch");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
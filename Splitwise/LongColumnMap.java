@@ -0,0 +1,123 @@
+// Open-addressing hash map from a long key to a fixed number of long columns, all kept in a single
+// long[] as (key, column 0, column 1, ...) so a lookup touches one or two cache lines and an entry
+// costs 8 bytes per field instead of a map node and boxed values. Linear probing, at most 3/4 full.
+// Any key except Long.MIN_VALUE may be stored. Not thread-safe; owners guard it themselves.
+class LongColumnMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int stride;
+    private long[] table;
+    private int mask;
+    private int size;
+
+    LongColumnMap(int expected, int columns) {
+        this.stride = 1 + columns;
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 4 / 3) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity * stride];
+        mask = capacity - 1;
+        for (int i = 0; i < table.length; i += stride) {
+            table[i] = EMPTY;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Index of key's entry, or of the empty slot where it would go.
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = table[slot * stride];
+            if (k == key || k == EMPTY) {
+                return slot * stride;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int findOrInsert(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key " + key);
+        }
+        int at = find(key);
+        if (table[at] == EMPTY) {
+            if ((size + 1) * 4L > (mask + 1) * 3L) {
+                grow();
+                at = find(key);
+            }
+            table[at] = key;
+            size++;
+        }
+        return at;
+    }
+
+    // findOrInsert may replace the table, so it runs before table is read
+    final void add(long key, int column, long delta) {
+        int at = findOrInsert(key);
+        table[at + 1 + column] += delta;
+    }
+
+    final long get(long key, int column) {
+        int at = find(key);
+        return table[at] == EMPTY ? 0 : table[at + 1 + column];
+    }
+
+    final boolean contains(long key) {
+        return table[find(key)] != EMPTY;
+    }
+
+    final int size() {
+        return size;
+    }
+
+    // Slot-level access, so callers can walk (or split up) the table without a callback per entry.
+    final int capacity() {
+        return mask + 1;
+    }
+
+    final boolean isUsed(int slot) {
+        return table[slot * stride] != EMPTY;
+    }
+
+    final long keyAt(int slot) {
+        return table[slot * stride];
+    }
+
+    final long valueAt(int slot, int column) {
+        return table[slot * stride + 1 + column];
+    }
+
+    // Adds every entry of other, column by column; both maps must have the same number of columns.
+    final void addAll(LongColumnMap other) {
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.isUsed(slot)) {
+                int at = findOrInsert(other.keyAt(slot));
+                for (int c = 1; c < stride; c++) {
+                    table[at + c] += other.table[slot * stride + c];
+                }
+            }
+        }
+    }
+
+    final void copyInto(LongColumnMap copy) {
+        copy.table = table.clone();
+        copy.mask = mask;
+        copy.size = size;
+    }
+
+    private void grow() {
+        long[] old = table;
+        allocate((mask + 1) * 2);
+        for (int i = 0; i < old.length; i += stride) {
+            if (old[i] != EMPTY) {
+                System.arraycopy(old, i, table, find(old[i]), stride);
+            }
+        }
+    }
+}
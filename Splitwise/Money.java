@@ -0,0 +1,130 @@
+import java.math.BigDecimal;
+
+// Amounts are plain longs in minor units (paise, cents), so adding and comparing them is exact and
+// costs nothing. This class only converts to and from text and divides amounts into shares; there is
+// no Money object to allocate per amount.
+final class Money {
+    static final int MINOR_PER_MAJOR = 100;
+    // Percentages are given in basis points: 10_000 is 100.00%.
+    static final long BASIS_POINTS = 10_000;
+
+    private static final ThreadLocal<long[]> remainders = ThreadLocal.withInitial(() -> new long[16]);
+
+    private Money() {
+    }
+
+    static long ofMajor(long major) {
+        return Math.multiplyExact(major, MINOR_PER_MAJOR);
+    }
+
+    // "12.34" -> 1234. More decimals than the currency has is an error, not a silent rounding.
+    static long parse(String text) {
+        return new BigDecimal(text.trim()).movePointRight(2).longValueExact();
+    }
+
+    // parse() for text[from, to) without the BigDecimal, for bulk imports: optional '-', digits and at
+    // most two decimals.
+    static long parse(CharSequence text, int from, int to) {
+        boolean negative = from < to && text.charAt(from) == '-';
+        int i = negative ? from + 1 : from;
+        long minor = 0;
+        int decimals = -1;
+        boolean digits = false;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9' && decimals < 2) {
+                minor = Math.addExact(Math.multiplyExact(minor, 10), c - '0');
+                digits = true;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                throw new NumberFormatException("Not an amount: " + text.subSequence(from, to));
+            }
+        }
+        if (!digits) {
+            throw new NumberFormatException("Not an amount: " + text.subSequence(from, to));
+        }
+        for (int d = Math.max(decimals, 0); d < 2; d++) {
+            minor = Math.multiplyExact(minor, 10);
+        }
+        return negative ? -minor : minor;
+    }
+
+    static String format(long minor) {
+        long abs = Math.abs(minor);
+        long fraction = abs % MINOR_PER_MAJOR;
+        return (minor < 0 ? "-" : "") + abs / MINOR_PER_MAJOR + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    // Share 'index' of an equal split: the first (total mod parts) shares carry one extra minor unit,
+    // so the shares add up to the total exactly.
+    static long equalShare(long total, int parts, int index) {
+        long base = Math.floorDiv(total, parts);
+        long extra = Math.floorMod(total, parts);
+        return base + (index < extra ? 1 : 0);
+    }
+
+    // Largest-remainder allocation of total in proportion to weights[0..count): every share is its exact
+    // proportion rounded down, then the units left over go one each to the largest remainders (earlier
+    // index first on ties). Shares add up to total exactly and each is within one unit of its exact
+    // value. out may be the weights array. Allocates nothing once the thread's scratch array is big enough.
+    static void allocate(long total, long[] weights, int count, long[] out) {
+        long weightSum = 0;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative weight " + weights[i] + " at " + i);
+            }
+            weightSum += weights[i];
+        }
+        if (weightSum <= 0 || weightSum > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Weights must add up to between 1 and " + Integer.MAX_VALUE + ": " + weightSum);
+        }
+        long[] keys = remainders.get();
+        if (keys.length < count) {
+            keys = new long[Math.max(count, keys.length * 2)];
+            remainders.set(keys);
+        }
+        long leftover = total;
+        for (int i = 0; i < count; i++) {
+            long exact = Math.multiplyExact(total, weights[i]);
+            long share = Math.floorDiv(exact, weightSum);
+            // remainder < 2^31 and index < 2^31: larger remainder first, then lower index
+            keys[i] = (Math.floorMod(exact, weightSum) << 31) | (Integer.MAX_VALUE - i);
+            out[i] = share;
+            leftover -= share;
+        }
+        // leftover < count; pick that many largest keys with a heap built in place.
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(keys, i, count);
+        }
+        int size = count;
+        for (long given = 0; given < leftover; given++) {
+            int index = Integer.MAX_VALUE - (int) (keys[0] & Integer.MAX_VALUE);
+            out[index]++;
+            keys[0] = keys[--size];
+            siftDown(keys, 0, size);
+        }
+    }
+
+    private static void siftDown(long[] heap, int i, int size) {
+        long key = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= key) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+}
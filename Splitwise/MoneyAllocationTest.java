@@ -0,0 +1,138 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// Splits millions of random amounts equally and by percentage and checks that the shares add up to
+// the total exactly and that each is within one minor unit of its exact value. Then posts split
+// expenses through the BalanceSheetController and checks that not a single minor unit goes missing,
+// and measures the bytes allocated by the split arithmetic itself (it should be none).
+// Usage: java MoneyAllocationTest [splits]
+public class MoneyAllocationTest {
+    // Exact share * weightSum is total * weight; within one unit means |share * weightSum - total * weight| < weightSum.
+    static String checkShares(long total, long[] weights, int count, long[] shares) {
+        long weightSum = 0;
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            weightSum += weights[i];
+            sum += shares[i];
+        }
+        if (sum != total) {
+            return "shares of " + total + " add up to " + sum;
+        }
+        for (int i = 0; i < count; i++) {
+            long error = Math.abs(shares[i] * weightSum - total * weights[i]);
+            if (error >= weightSum) {
+                return "share " + i + " of " + total + " is " + shares[i] + ", off by more than one unit";
+            }
+        }
+        return null;
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    public static void main(String[] args) {
+        int splits = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Random random = new Random(22);
+        List<String> failures = new ArrayList<>();
+        long[] weights = new long[64];
+        long[] shares = new long[64];
+        long[] ones = new long[64];
+        Arrays.fill(ones, 1);
+
+        // Equal splits, checked against allocate() with equal weights as well as on their own.
+        for (int s = 0; s < splits; s++) {
+            long total = random.nextInt(10_000_000) - (s % 10 == 0 ? 5_000_000 : 0);
+            int parts = 1 + random.nextInt(40);
+            for (int i = 0; i < parts; i++) {
+                shares[i] = Money.equalShare(total, parts, i);
+            }
+            String failure = checkShares(total, ones, parts, shares);
+            if (failure == null) {
+                Money.allocate(total, ones, parts, weights);
+                for (int i = 0; i < parts && failure == null; i++) {
+                    if (weights[i] != shares[i]) {
+                        failure = "equal split of " + total + " into " + parts + " differs from allocate()";
+                    }
+                }
+            }
+            if (failure != null) {
+                failures.add(failure);
+            }
+        }
+
+        // Percentage splits in basis points adding up to 100%.
+        for (int s = 0; s < splits; s++) {
+            long total = 1 + random.nextInt(10_000_000);
+            int parts = 1 + random.nextInt(20);
+            long left = Money.BASIS_POINTS;
+            for (int i = 0; i < parts - 1; i++) {
+                weights[i] = random.nextInt((int) left + 1);
+                left -= weights[i];
+            }
+            weights[parts - 1] = left;
+            Money.allocate(total, weights, parts, shares);
+            String failure = checkShares(total, weights, parts, shares);
+            if (failure != null) {
+                failures.add(failure);
+            }
+        }
+        System.out.printf("%,d equal and %,d percentage splits checked%n", splits, splits);
+
+        // The same arithmetic once warmed up: no bytes allocated per split.
+        long sink = 0;
+        long before = allocatedBytes();
+        for (int s = 0; s < splits; s++) {
+            long total = 1 + (s * 7919L) % 10_000_000;
+            int parts = 1 + s % 20;
+            for (int i = 0; i < parts; i++) {
+                sink += Money.equalShare(total, parts, i);
+            }
+            Money.allocate(total, ones, parts, shares);
+            sink += shares[0];
+        }
+        long allocated = allocatedBytes() - before;
+        System.out.printf("split arithmetic allocated %,d bytes over %,d splits (checksum %d)%n", allocated, splits, sink);
+        // a few hundred bytes of slack for the measurement itself
+        if (allocated > 1024) {
+            failures.add("split arithmetic allocated " + allocated + " bytes");
+        }
+
+        // Through the controller: every posted minor unit lands on a balance sheet.
+        List<User> users = SplitwiseFixtures.newUsers(200);
+        BalanceSheetController controller = new BalanceSheetController();
+        long posted = 0;
+        double postedAsDouble = 0;
+        for (int e = 0; e < 1_000_000; e++) {
+            ExpenseSpec expense = SplitwiseFixtures.randomEqualSpec(e, 1, users.size(), 9, 1_000_000, random);
+            if (e % 2 == 1) {
+                SplitwiseFixtures.randomShares(expense, ExpenseSplitType.PERCENTAGE, random);
+            }
+            SplitwiseFixtures.post(controller, users, expense);
+            posted += expense.total;
+            // what the old double ledger would have held for the same expense
+            postedAsDouble += expense.total / 100.0;
+        }
+        long paid = 0;
+        long expenses = 0;
+        long net = 0;
+        for (User user : users) {
+            UserExpenseBalanceSheet sheet = user.getUserExpenseBalanceSheet();
+            paid += sheet.getTotalPayment();
+            expenses += sheet.getTotalYourExpense();
+            net += sheet.getTotalYouGetBack() - sheet.getTotalYouOwe();
+        }
+        if (paid != posted || expenses != posted || net != 0) {
+            failures.add("posted " + posted + ", paid " + paid + ", expenses " + expenses + ", net " + net);
+        }
+        System.out.printf("1,000,000 expenses posted: %s exact; a double ledger would be off by %.6f%n",
+                Money.format(posted), Math.abs(postedAsDouble - posted / 100.0));
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: every split added up to its total exactly");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " violations, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
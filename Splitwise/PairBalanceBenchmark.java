@@ -0,0 +1,136 @@
+import java.lang.ref.Reference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Heap and speed of the pairwise balances at 10M entries: the old per-user ConcurrentHashMap keyed
+// by the other user's id as a String with a Balance object per entry, vs PairBalanceMap.
+// Entries are created the way expenses create them, one user after another, then updated at random
+// and finally scanned for net positions.
+// Usage: java -Xmx3g PairBalanceBenchmark [users] [balancesPerUser]
+public class PairBalanceBenchmark {
+    interface Layout {
+        void add(int user, int other, long getBack, long owe);
+
+        long net(int user);
+    }
+
+    static class StringKeyedMaps implements Layout {
+        final List<Map<String, Balance>> maps = new ArrayList<>();
+
+        StringKeyedMaps(int users) {
+            for (int i = 0; i < users; i++) {
+                maps.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        public void add(int user, int other, long getBack, long owe) {
+            Balance balance = maps.get(user).computeIfAbsent(String.valueOf(other), id -> new Balance());
+            balance.setAmountGetBack(balance.getAmountGetBack() + getBack);
+            balance.setAmountOwe(balance.getAmountOwe() + owe);
+        }
+
+        public long net(int user) {
+            long net = 0;
+            for (Balance balance : maps.get(user).values()) {
+                net += balance.getAmountGetBack() - balance.getAmountOwe();
+            }
+            return net;
+        }
+    }
+
+    static class PrimitiveMaps implements Layout {
+        final PairBalanceMap[] maps;
+
+        PrimitiveMaps(int users) {
+            maps = new PairBalanceMap[users];
+            for (int i = 0; i < users; i++) {
+                maps[i] = new PairBalanceMap();
+            }
+        }
+
+        public void add(int user, int other, long getBack, long owe) {
+            if (getBack != 0) {
+                maps[user].addGetBack(other, getBack);
+            }
+            if (owe != 0) {
+                maps[user].addOwe(other, owe);
+            }
+        }
+
+        public long net(int user) {
+            long[] net = new long[1];
+            maps[user].forEach((other, getBack, owe) -> net[0] += getBack - owe);
+            return net[0];
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static long fullGcMillis() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000;
+    }
+
+    // k-th counterparty of user: distinct for k < users - 1
+    static int other(int user, int k, int users) {
+        return (user + 1 + k) % users;
+    }
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int perUser = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        long entries = (long) users * perUser;
+        System.out.printf("%,d users x %,d balances = %,d pair entries%n", users, perUser, entries);
+
+        for (int round = 0; round < 2; round++) {
+            for (String name : Arrays.asList("string-keyed", "primitive")) {
+                long baseline = usedHeap();
+                Layout layout = name.equals("primitive") ? new PrimitiveMaps(users) : new StringKeyedMaps(users);
+
+                long start = System.nanoTime();
+                for (int k = 0; k < perUser; k++) {
+                    for (int user = 0; user < users; user++) {
+                        layout.add(user, other(user, k, users), 100 + k, 0);
+                    }
+                }
+                long insertNanos = System.nanoTime() - start;
+
+                long seed = 42;
+                start = System.nanoTime();
+                for (long i = 0; i < entries; i++) {
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    int user = (int) ((seed >>> 33) % users);
+                    int k = (int) ((seed >>> 13) & 0xFFFFF) % perUser;
+                    layout.add(user, other(user, k, users), 0, 7);
+                }
+                long updateNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long checksum = 0;
+                for (int user = 0; user < users; user++) {
+                    checksum += layout.net(user);
+                }
+                long scanNanos = System.nanoTime() - start;
+
+                long heap = usedHeap() - baseline;
+                long gc = fullGcMillis();
+                Reference.reachabilityFence(layout);
+                System.out.printf("round %d %-12s: %,9d KB (%5.1f bytes/entry), insert %4.0f ns, update %4.0f ns, "
+                                + "scan %,5d ms, full GC %,5d ms (checksum %d)%n",
+                        round, name, heap / 1024, heap / (double) entries, insertNanos / (double) entries,
+                        updateNanos / (double) entries, scanNanos / 1_000_000, gc, checksum);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// One user's pairwise balances: for each other user, what this user gets back from them and what
+// this user owes them, as plain longs in a two-column LongColumnMap. An entry costs 24 bytes of
+// table instead of a map node, a String key and a Balance object.
+// Not thread-safe: BalanceSheetController's stripe locks guard each sheet's map.
+class PairBalanceMap extends LongColumnMap {
+    interface Visitor {
+        void visit(long key, long amountGetBack, long amountOwe);
+    }
+
+    private static final int GET_BACK = 0;
+    private static final int OWE = 1;
+
+    PairBalanceMap() {
+        this(4);
+    }
+
+    PairBalanceMap(int expected) {
+        super(expected, 2);
+    }
+
+    void addGetBack(long key, long amount) {
+        add(key, GET_BACK, amount);
+    }
+
+    void addOwe(long key, long amount) {
+        add(key, OWE, amount);
+    }
+
+    long getAmountGetBack(long key) {
+        return get(key, GET_BACK);
+    }
+
+    long getAmountOwe(long key) {
+        return get(key, OWE);
+    }
+
+    PairBalanceMap copy() {
+        PairBalanceMap copy = new PairBalanceMap(0);
+        copyInto(copy);
+        return copy;
+    }
+
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot < capacity(); slot++) {
+            if (isUsed(slot)) {
+                visitor.visit(keyAt(slot), valueAt(slot, GET_BACK), valueAt(slot, OWE));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.*;
+
+// One payment that settles part of the group's debts.
+class Transfer {
+    User from;
+    User to;
+    long amount;
+
+    public Transfer(User from, User to, long amount) {
+        this.from = from;
+        this.to = to;
+        this.amount = amount;
+    }
+
+    public User getFrom() { return from; }
+
+    public User getTo() { return to; }
+
+    public long getAmount() { return amount; }
+}
+
+// Replaces the pairwise "who owes whom" edges of a set of users with as few payments as it can.
+//
+// Only each member's net position matters: what the others in the set owe them minus what they
+// owe the others. Debtors and creditors with exactly opposite positions are paired first (one payment
+// settles both). The rest is a greedy over two max-heaps: the largest debtor pays the largest
+// creditor, and whoever still has a balance goes back in. Every payment clears at least one person,
+// so there are never more than members - 1 payments.
+class SettleUpEngine {
+    private static class Position {
+        final User user;
+        long amount;
+
+        Position(User user, long amount) {
+            this.user = user;
+            this.amount = amount;
+        }
+    }
+
+    // Positive: the member is owed money by the others in the set; negative: the member owes.
+    // Balances with users outside the set are left out, so the positions always sum to zero.
+    public Map<User, Long> netPositions(Collection<User> members) {
+        Set<Long> memberIds = new HashSet<>();
+        for (User member : members) {
+            memberIds.add((long) member.userId);
+        }
+        Map<User, Long> positions = new LinkedHashMap<>();
+        long[] net = new long[1];
+        for (User member : members) {
+            net[0] = 0;
+            synchronized (BalanceSheetController.stripeLock(member)) {
+                member.getUserExpenseBalanceSheet().forEachBalance((otherUserId, getBack, owe) -> {
+                    if (memberIds.contains(otherUserId)) {
+                        net[0] += getBack - owe;
+                    }
+                });
+            }
+            positions.put(member, net[0]);
+        }
+        return positions;
+    }
+
+    public List<Transfer> settle(Collection<User> members) {
+        return settle(netPositions(members));
+    }
+
+    public List<Transfer> settle(Map<User, Long> netPositions) {
+        List<Transfer> transfers = new ArrayList<>();
+
+        // Exact opposites settle each other in one payment; equal splits produce plenty of them.
+        Map<Long, Deque<User>> debtorsByAmount = new HashMap<>();
+        List<Position> creditors = new ArrayList<>();
+        for (Map.Entry<User, Long> entry : netPositions.entrySet()) {
+            if (entry.getValue() < 0) {
+                debtorsByAmount.computeIfAbsent(-entry.getValue(), amount -> new ArrayDeque<>()).add(entry.getKey());
+            }
+        }
+        for (Map.Entry<User, Long> entry : netPositions.entrySet()) {
+            long amount = entry.getValue();
+            if (amount > 0) {
+                Deque<User> match = debtorsByAmount.get(amount);
+                if (match != null && !match.isEmpty()) {
+                    transfers.add(new Transfer(match.poll(), entry.getKey(), amount));
+                } else {
+                    creditors.add(new Position(entry.getKey(), amount));
+                }
+            }
+        }
+
+        Comparator<Position> largestFirst = (a, b) -> Long.compare(b.amount, a.amount);
+        PriorityQueue<Position> creditorHeap = new PriorityQueue<>(Math.max(1, creditors.size()), largestFirst);
+        creditorHeap.addAll(creditors);
+        PriorityQueue<Position> debtorHeap = new PriorityQueue<>(largestFirst);
+        for (Map.Entry<Long, Deque<User>> entry : debtorsByAmount.entrySet()) {
+            for (User debtor : entry.getValue()) {
+                debtorHeap.add(new Position(debtor, entry.getKey()));
+            }
+        }
+
+        while (!creditorHeap.isEmpty() && !debtorHeap.isEmpty()) {
+            Position creditor = creditorHeap.poll();
+            Position debtor = debtorHeap.poll();
+            long amount = Math.min(creditor.amount, debtor.amount);
+            transfers.add(new Transfer(debtor.user, creditor.user, amount));
+            creditor.amount -= amount;
+            debtor.amount -= amount;
+            if (creditor.amount > 0) {
+                creditorHeap.add(creditor);
+            }
+            if (debtor.amount > 0) {
+                debtorHeap.add(debtor);
+            }
+        }
+        return transfers;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.*;
+
+// Builds balance sheets from random equal-split expenses, settles them, and checks that paying the
+// transfers leaves every member at exactly zero: the net positions are preserved, nothing is
+// created or lost, and no group needs more than members - 1 payments.
+// Usage: java SettleUpTest [largestGroup]
+public class SettleUpTest {
+    static List<User> randomGroup(int size, int expenses, Random random) {
+        List<User> users = SplitwiseFixtures.newUsers(size);
+        BalanceSheetController controller = new BalanceSheetController();
+        for (int e = 0; e < expenses; e++) {
+            SplitwiseFixtures.post(controller, users, SplitwiseFixtures.randomEqualSpec(e, 1, size, 12, 5_000_000, random));
+        }
+        return users;
+    }
+
+    // Paying every transfer must bring each member's position to exactly zero.
+    static String check(Map<User, Long> positions, List<Transfer> transfers) {
+        Map<User, Long> remaining = new HashMap<>(positions);
+        for (Transfer transfer : transfers) {
+            if (transfer.getAmount() <= 0 || transfer.getFrom() == transfer.getTo()) {
+                return "bad transfer of " + transfer.getAmount();
+            }
+            remaining.merge(transfer.getFrom(), transfer.getAmount(), Long::sum);
+            remaining.merge(transfer.getTo(), -transfer.getAmount(), Long::sum);
+        }
+        for (Map.Entry<User, Long> entry : remaining.entrySet()) {
+            if (entry.getValue() != 0) {
+                return "user " + entry.getKey().getUserId() + " left at " + entry.getValue();
+            }
+        }
+        if (transfers.size() > Math.max(0, positions.size() - 1)) {
+            return transfers.size() + " transfers for " + positions.size() + " members";
+        }
+        return null;
+    }
+
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        SettleUpEngine engine = new SettleUpEngine();
+        Random random = new Random(7);
+        List<String> failures = new ArrayList<>();
+
+        for (int round = 0; round < 200; round++) {
+            int size = 2 + random.nextInt(60);
+            List<User> users = randomGroup(size, random.nextInt(200), random);
+            Map<User, Long> positions = engine.netPositions(users);
+            String failure = check(positions, engine.settle(positions));
+            if (failure != null) {
+                failures.add("group of " + size + ": " + failure);
+            }
+            // A subgroup settles only what its members owe each other.
+            List<User> subgroup = users.subList(0, size / 2 + 1);
+            failure = check(engine.netPositions(subgroup), engine.settle(subgroup));
+            if (failure != null) {
+                failures.add("subgroup of " + subgroup.size() + ": " + failure);
+            }
+        }
+
+        for (int size : new int[] { 40, 1_000, largest, largest }) {
+            List<User> users = randomGroup(size, size * 5, random);
+            long pairs = 0;
+            for (User user : users) {
+                pairs += user.getUserExpenseBalanceSheet().getBalanceCount();
+            }
+            long start = System.nanoTime();
+            Map<User, Long> positions = engine.netPositions(users);
+            long netted = System.nanoTime();
+            List<Transfer> transfers = engine.settle(positions);
+            long settled = System.nanoTime();
+            String failure = check(positions, transfers);
+            if (failure != null) {
+                failures.add("group of " + size + ": " + failure);
+            }
+            System.out.printf("%,6d members: %,8d pairwise balances -> %,6d transfers; net positions %,d us, settle %,d us%n",
+                    size, pairs / 2, transfers.size(), (netted - start) / 1000, (settled - netted) / 1000);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("PASS: every settlement preserved the net positions");
+        } else {
+            System.out.println("FAIL: " + failures.size() + " groups, first: " + failures.get(0));
+            System.exit(1);
+        }
+    }
+}
@@ -14,7 +14,12 @@ class User {
     int userId;
     String userName;
     List<Group> groups = new ArrayList<>();
-    private UserExpenseBalanceSheet userExpenseBalanceSheet = new UserExpenseBalanceSheet();
+    private UserExpenseBalanceSheet userExpenseBalanceSheet = new UserExpenseBalanceSheet(this);
+
+    // The id as text, as printed and as keyed by UserExpenseBalanceSheet.userVsBalanceSnapshot().
+    public String getUserId() {
+        return String.valueOf(userId);
+    }
 
     public UserExpenseBalanceSheet getUserExpenseBalanceSheet() {
         return userExpenseBalanceSheet;
@@ -35,17 +40,26 @@ class Expense {
     List<User> spendees;
     ExpenseSplitType splitType;
     List<Split> splitDetails = new ArrayList<>();
-    double totalAmount;
+    // All amounts are in minor units (see Money).
+    long totalAmount;
 }
 
 class Split {
     User user;
-    double amountOwe;
+    long amountOwe;
 
-    public Split(User user, double amountOwe) {
+    public Split(User user, long amountOwe) {
         this.user = user;
         this.amountOwe = amountOwe;
     }
+
+    public User getUser() {
+        return user;
+    }
+
+    public long getAmountOwe() {
+        return amountOwe;
+    }
 }
 class SplitFactory {
     ExpenseSplit getSplitObject(ExpenseSplitType splitType) {
@@ -59,9 +73,9 @@ class SplitFactory {
 }
 class EqualExpenseSplit implements ExpenseSplit {
     public void split(Expense expense) {
-        double perUserShare = expense.totalAmount / expense.spendees.size();
-        for (User user : expense.spendees) {
-            expense.splitDetails.add(new Split(user, perUserShare));
+        int parts = expense.spendees.size();
+        for (int i = 0; i < parts; i++) {
+            expense.splitDetails.add(new Split(expense.spendees.get(i), Money.equalShare(expense.totalAmount, parts, i)));
         }
     }
 }
@@ -72,92 +86,214 @@ class UnequalExpenseSplit implements ExpenseSplit {
 }
 
 class PercentageExpenseSplit implements ExpenseSplit {
+    private static final ThreadLocal<long[]> shares = ThreadLocal.withInitial(() -> new long[16]);
+
+    // splitDetails come pre-filled with each user's percentage in basis points (2500 = 25%);
+    // they are replaced by amounts that add up to the total exactly.
     public void split(Expense expense) {
-        // Assume splitDetails are pre-filled with % amounts
+        int count = expense.splitDetails.size();
+        long[] amounts = shares.get();
+        if (amounts.length < count) {
+            amounts = new long[Math.max(count, amounts.length * 2)];
+            shares.set(amounts);
+        }
+        long percentSum = 0;
+        for (int i = 0; i < count; i++) {
+            amounts[i] = expense.splitDetails.get(i).amountOwe;
+            percentSum += amounts[i];
+        }
+        if (percentSum != Money.BASIS_POINTS) {
+            throw new IllegalArgumentException("Percentages add up to " + Money.format(percentSum) + "%, not 100%");
+        }
+        Money.allocate(expense.totalAmount, amounts, count, amounts);
+        for (int i = 0; i < count; i++) {
+            expense.splitDetails.get(i).amountOwe = amounts[i];
+        }
     }
 }
 class UserExpenseBalanceSheet {
-    private double totalYourExpense;
-    private double totalYouGetBack;
-    private double totalYouOwe;
-    private double totalPayment;
-    private Map<String, Balance> userVsBalance = new HashMap<>();
+    private long totalYourExpense;
+    private long totalYouGetBack;
+    private long totalYouOwe;
+    private long totalPayment;
+    // Balances with each other user, keyed by their user id. Read and written under this user's
+    // BalanceSheetController stripe lock.
+    private final PairBalanceMap balances;
+    // The user whose stripe guards this sheet; null for a detached sheet such as a copy or a rebuild.
+    private final User owner;
+
+    public UserExpenseBalanceSheet() {
+        this(null, new PairBalanceMap());
+    }
 
-    public double getTotalYourExpense() { return totalYourExpense; }
-    public void setTotalYourExpense(double totalYourExpense) { this.totalYourExpense = totalYourExpense; }
+    UserExpenseBalanceSheet(User owner) {
+        this(owner, new PairBalanceMap());
+    }
+
+    private UserExpenseBalanceSheet(User owner, PairBalanceMap balances) {
+        this.owner = owner;
+        this.balances = balances;
+    }
 
-    public double getTotalYouGetBack() { return totalYouGetBack; }
-    public void setTotalYouGetBack(double totalYouGetBack) { this.totalYouGetBack = totalYouGetBack; }
+    public long getTotalYourExpense() { return totalYourExpense; }
+    public void setTotalYourExpense(long totalYourExpense) { this.totalYourExpense = totalYourExpense; }
 
-    public double getTotalYouOwe() { return totalYouOwe; }
-    public void setTotalYouOwe(double totalYouOwe) { this.totalYouOwe = totalYouOwe; }
+    public long getTotalYouGetBack() { return totalYouGetBack; }
+    public void setTotalYouGetBack(long totalYouGetBack) { this.totalYouGetBack = totalYouGetBack; }
 
-    public double getTotalPayment() { return totalPayment; }
-    public void setTotalPayment(double totalPayment) { this.totalPayment = totalPayment; }
+    public long getTotalYouOwe() { return totalYouOwe; }
+    public void setTotalYouOwe(long totalYouOwe) { this.totalYouOwe = totalYouOwe; }
 
-    public Map<String, Balance> getUserVsBalance() { return userVsBalance; }
+    public long getTotalPayment() { return totalPayment; }
+    public void setTotalPayment(long totalPayment) { this.totalPayment = totalPayment; }
+
+    public long getAmountGetBack(int otherUserId) { return balances.getAmountGetBack(otherUserId); }
+    public long getAmountOwe(int otherUserId) { return balances.getAmountOwe(otherUserId); }
+    public boolean hasBalanceWith(int otherUserId) { return balances.contains(otherUserId); }
+    public int getBalanceCount() { return balances.size(); }
+
+    void addAmountGetBack(int otherUserId, long amount) { balances.addGetBack(otherUserId, amount); }
+    void addAmountOwe(int otherUserId, long amount) { balances.addOwe(otherUserId, amount); }
+
+    // Visits (other user id, get back, owe) for every user this one has a balance with.
+    public void forEachBalance(PairBalanceMap.Visitor visitor) { balances.forEach(visitor); }
+
+    UserExpenseBalanceSheet copy() {
+        UserExpenseBalanceSheet copy = new UserExpenseBalanceSheet(null, balances.copy());
+        copy.totalYourExpense = totalYourExpense;
+        copy.totalYouGetBack = totalYouGetBack;
+        copy.totalYouOwe = totalYouOwe;
+        copy.totalPayment = totalPayment;
+        return copy;
+    }
+
+    // A snapshot of the balances as Balance objects keyed by the other user's id as a string, taken
+    // under the owner's stripe lock. It is the caller's to keep: later expenses do not show up in it,
+    // and changing it does not change the sheet. This replaces getUserVsBalance(), which returned the
+    // sheet's live map; code that kept that map to watch or edit balances must use forEachBalance,
+    // the getAmount* accessors or BalanceSheetController instead.
+    public Map<String, Balance> userVsBalanceSnapshot() {
+        Map<String, Balance> copy = new HashMap<>();
+        synchronized (owner == null ? this : BalanceSheetController.stripeLock(owner)) {
+            balances.forEach((otherUserId, getBack, owe) -> {
+                Balance balance = new Balance();
+                balance.setAmountGetBack(getBack);
+                balance.setAmountOwe(owe);
+                copy.put(String.valueOf(otherUserId), balance);
+            });
+        }
+        return copy;
+    }
 }
 class Balance {
-    private double amountGetBack;
-    private double amountOwe;
+    private long amountGetBack;
+    private long amountOwe;
 
-    public double getAmountGetBack() { return amountGetBack; }
-    public void setAmountGetBack(double amountGetBack) { this.amountGetBack = amountGetBack; }
+    public long getAmountGetBack() { return amountGetBack; }
+    public void setAmountGetBack(long amountGetBack) { this.amountGetBack = amountGetBack; }
 
-    public double getAmountOwe() { return amountOwe; }
-    public void setAmountOwe(double amountOwe) { this.amountOwe = amountOwe; }
+    public long getAmountOwe() { return amountOwe; }
+    public void setAmountOwe(long amountOwe) { this.amountOwe = amountOwe; }
 }
 
 
 
+ // Every balance sheet is guarded by one of a fixed set of stripe locks, chosen by user id and shared by
+ // all controllers. A split locks the stripes of the two users it touches, lower stripe first, so two
+ // expenses can never wait on each other in a cycle and expenses between different users run in parallel.
  class BalanceSheetController {
 
-    public void updateUserExpenseBalanceSheet(User expensePaidBy, List<Split> splits, double totalExpenseAmount){
+    private static final int STRIPES = 1024;
+    private static final Object[] stripeLocks = new Object[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripeLocks[i] = new Object();
+        }
+    }
+
+    static int stripeOf(User user) {
+        return ((user.userId * 0x9E3779B9) >>> 16) & (STRIPES - 1);
+    }
+
+    // Readers hold this while going over a user's balances so a concurrent update cannot resize them.
+    static Object stripeLock(User user) {
+        return stripeLocks[stripeOf(user)];
+    }
+
+    public void updateUserExpenseBalanceSheet(User expensePaidBy, List<Split> splits, long totalExpenseAmount){
 
         //update the total amount paid of the expense paid by user
         UserExpenseBalanceSheet paidByUserExpenseSheet = expensePaidBy.getUserExpenseBalanceSheet();
-        paidByUserExpenseSheet.setTotalPayment(paidByUserExpenseSheet.getTotalPayment() + totalExpenseAmount);
+        int paidByStripe = stripeOf(expensePaidBy);
+        synchronized (stripeLocks[paidByStripe]) {
+            paidByUserExpenseSheet.setTotalPayment(paidByUserExpenseSheet.getTotalPayment() + totalExpenseAmount);
+        }
 
         for(Split split : splits) {
 
-            User userOwe = split.getUser();
-            UserExpenseBalanceSheet oweUserExpenseSheet = userOwe.getUserExpenseBalanceSheet();
-            double oweAmount = split.getAmountOwe();
-
-            if(expensePaidBy.getUserId().equals(userOwe.getUserId())){
-                paidByUserExpenseSheet.setTotalYourExpense(paidByUserExpenseSheet.getTotalYourExpense()+oweAmount);
+            int oweStripe = stripeOf(split.getUser());
+            synchronized (stripeLocks[Math.min(paidByStripe, oweStripe)]) {
+                synchronized (stripeLocks[Math.max(paidByStripe, oweStripe)]) {
+                    applySplit(expensePaidBy, paidByUserExpenseSheet, split);
+                }
             }
-            else {
+        }
+    }
 
-                //update the balance of paid user
-                paidByUserExpenseSheet.setTotalYouGetBack(paidByUserExpenseSheet.getTotalYouGetBack() + oweAmount);
+    private void applySplit(User expensePaidBy, UserExpenseBalanceSheet paidByUserExpenseSheet, Split split) {
 
-                Balance userOweBalance;
-                if(paidByUserExpenseSheet.getUserVsBalance().containsKey(userOwe.getUserId())) {
+        User userOwe = split.getUser();
+        applySplit(expensePaidBy.userId, paidByUserExpenseSheet, userOwe.userId, userOwe.getUserExpenseBalanceSheet(), split.getAmountOwe());
+    }
 
-                    userOweBalance = paidByUserExpenseSheet.getUserVsBalance().get(userOwe.getUserId());
-                }
-                else {
-                    userOweBalance = new Balance();
-                    paidByUserExpenseSheet.getUserVsBalance().put(userOwe.getUserId(), userOweBalance);
-                }
+    // One split's effect on the payer's and the owing user's sheets. Either sheet may be null to update
+    // only the other side, as ExpenseLog does when it rebuilds a single user.
+    static void applySplit(int paidById, UserExpenseBalanceSheet paidByUserExpenseSheet,
+                           int oweId, UserExpenseBalanceSheet oweUserExpenseSheet, long oweAmount) {
 
-                userOweBalance.setAmountGetBack(userOweBalance.getAmountGetBack() + oweAmount);
+        if(paidById == oweId){
+            if (paidByUserExpenseSheet != null) {
+                paidByUserExpenseSheet.setTotalYourExpense(paidByUserExpenseSheet.getTotalYourExpense()+oweAmount);
+            }
+        }
+        else {
 
+            //update the balance of paid user
+            if (paidByUserExpenseSheet != null) {
+                paidByUserExpenseSheet.setTotalYouGetBack(paidByUserExpenseSheet.getTotalYouGetBack() + oweAmount);
+                paidByUserExpenseSheet.addAmountGetBack(oweId, oweAmount);
+            }
 
-                //update the balance sheet of owe user
+            //update the balance sheet of owe user
+            if (oweUserExpenseSheet != null) {
                 oweUserExpenseSheet.setTotalYouOwe(oweUserExpenseSheet.getTotalYouOwe() + oweAmount);
                 oweUserExpenseSheet.setTotalYourExpense(oweUserExpenseSheet.getTotalYourExpense() + oweAmount);
+                oweUserExpenseSheet.addAmountOwe(paidById, oweAmount);
+            }
+        }
+    }
 
-                Balance userPaidBalance;
-                if(oweUserExpenseSheet.getUserVsBalance().containsKey(expensePaidBy.getUserId())){
-                    userPaidBalance = oweUserExpenseSheet.getUserVsBalance().get(expensePaidBy.getUserId());
-                }
-                else{
-                    userPaidBalance = new Balance();
-                    oweUserExpenseSheet.getUserVsBalance().put(expensePaidBy.getUserId(), userPaidBalance);
-                }
-                userPaidBalance.setAmountOwe(userPaidBalance.getAmountOwe() + oweAmount);
+    // Bulk import: adds a user's summed totals in one step instead of once per split.
+    void addTotals(User user, long payment, long yourExpense, long youGetBack, long youOwe) {
+        UserExpenseBalanceSheet sheet = user.getUserExpenseBalanceSheet();
+        synchronized (stripeLocks[stripeOf(user)]) {
+            sheet.setTotalPayment(sheet.getTotalPayment() + payment);
+            sheet.setTotalYourExpense(sheet.getTotalYourExpense() + yourExpense);
+            sheet.setTotalYouGetBack(sheet.getTotalYouGetBack() + youGetBack);
+            sheet.setTotalYouOwe(sheet.getTotalYouOwe() + youOwe);
+        }
+    }
+
+    // Bulk import: adds what userOwe owes expensePaidBy to both sides' pairwise balances; the totals
+    // are left to addTotals.
+    void addPairBalance(User expensePaidBy, User userOwe, long amount) {
+        int paidByStripe = stripeOf(expensePaidBy);
+        int oweStripe = stripeOf(userOwe);
+        synchronized (stripeLocks[Math.min(paidByStripe, oweStripe)]) {
+            synchronized (stripeLocks[Math.max(paidByStripe, oweStripe)]) {
+                expensePaidBy.getUserExpenseBalanceSheet().addAmountGetBack(userOwe.userId, amount);
+                userOwe.getUserExpenseBalanceSheet().addAmountOwe(expensePaidBy.userId, amount);
             }
         }
     }
@@ -170,16 +306,14 @@ class Balance {
 
         UserExpenseBalanceSheet userExpenseBalanceSheet =  user.getUserExpenseBalanceSheet();
 
-        System.out.println("TotalYourExpense: " + userExpenseBalanceSheet.getTotalYourExpense());
-        System.out.println("TotalGetBack: " + userExpenseBalanceSheet.getTotalYouGetBack());
-        System.out.println("TotalYourOwe: " + userExpenseBalanceSheet.getTotalYouOwe());
-        System.out.println("TotalPaymnetMade: " + userExpenseBalanceSheet.getTotalPayment());
-        for(Map.Entry<String, Balance> entry : userExpenseBalanceSheet.getUserVsBalance().entrySet()){
-
-            String userID = entry.getKey();
-            Balance balance = entry.getValue();
-
-            System.out.println("userID:" + userID + " YouGetBack:" + balance.getAmountGetBack() + " YouOwe:" + balance.getAmountOwe());
+        // hold the user's stripe so the totals and balances printed belong together
+        synchronized (stripeLocks[stripeOf(user)]) {
+            System.out.println("TotalYourExpense: " + Money.format(userExpenseBalanceSheet.getTotalYourExpense()));
+            System.out.println("TotalGetBack: " + Money.format(userExpenseBalanceSheet.getTotalYouGetBack()));
+            System.out.println("TotalYourOwe: " + Money.format(userExpenseBalanceSheet.getTotalYouOwe()));
+            System.out.println("TotalPaymnetMade: " + Money.format(userExpenseBalanceSheet.getTotalPayment()));
+            userExpenseBalanceSheet.forEachBalance((userID, getBack, owe) ->
+                    System.out.println("userID:" + userID + " YouGetBack:" + Money.format(getBack) + " YouOwe:" + Money.format(owe)));
         }
 
         System.out.println("---------------------------------------");
@@ -198,7 +332,7 @@ public class Splitwise {
         expense.expenseId = 101;
         expense.expenseName = "Dinner";
         expense.spender = u1;
-        expense.totalAmount = 300;
+        expense.totalAmount = Money.ofMajor(300);
         expense.spendees = Arrays.asList(u1, u2, u3);
         expense.splitType = ExpenseSplitType.EQUAL;
 
@@ -207,7 +341,7 @@ public class Splitwise {
         splitter.split(expense);
 
         for (Split s : expense.splitDetails) {
-            System.out.println(s.user.userName + " owes: ₹" + s.amountOwe);
+            System.out.println(s.user.userName + " owes: ₹" + Money.format(s.amountOwe));
         }
 
         // 🔁 Balance Sheet Update
@@ -218,6 +352,12 @@ public class Splitwise {
         controller.showBalanceSheetOfUser(u1);
         controller.showBalanceSheetOfUser(u2);
         controller.showBalanceSheetOfUser(u3);
+
+        // Settle up with as few payments as possible
+        SettleUpEngine settleUp = new SettleUpEngine();
+        for (Transfer t : settleUp.settle(Arrays.asList(u1, u2, u3))) {
+            System.out.println(t.from.userName + " pays " + t.to.userName + ": ₹" + Money.format(t.amount));
+        }
     }
 }
 
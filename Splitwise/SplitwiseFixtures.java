@@ -0,0 +1,101 @@
+import java.util.*;
+
+// An expense for the Splitwise tests, naming users by id (1-based, matching SplitwiseFixtures.newUsers),
+// so the same expense can be written to a file, posted on fresh users or replayed later.
+class ExpenseSpec {
+    int expenseId;
+    int groupId;
+    int paidBy;
+    ExpenseSplitType type;
+    long total;
+    int[] userIds;
+    // minor units for UNEQUAL, basis points for PERCENTAGE, unused for EQUAL
+    long[] values;
+}
+
+// Users and expenses shared by the Splitwise tests.
+class SplitwiseFixtures {
+    static List<User> newUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            User user = new User();
+            user.userId = i;
+            user.userName = "user-" + i;
+            users.add(user);
+        }
+        return users;
+    }
+
+    // An equal split of 100 .. 100 + maxTotal - 1 minor units, paid by a user in firstUserId..lastUserId
+    // and shared with up to maxSpendees - 1 others from the same range.
+    static ExpenseSpec randomEqualSpec(int expenseId, int firstUserId, int lastUserId, int maxSpendees, int maxTotal,
+                                       Random random) {
+        int range = lastUserId - firstUserId + 1;
+        ExpenseSpec spec = new ExpenseSpec();
+        spec.expenseId = expenseId;
+        spec.paidBy = firstUserId + random.nextInt(range);
+        Set<Integer> spendees = new LinkedHashSet<>();
+        spendees.add(spec.paidBy);
+        int count = 1 + random.nextInt(Math.min(maxSpendees, range));
+        while (spendees.size() < count) {
+            spendees.add(firstUserId + random.nextInt(range));
+        }
+        spec.userIds = spendees.stream().mapToInt(Integer::intValue).toArray();
+        spec.total = 100 + random.nextInt(maxTotal);
+        spec.type = ExpenseSplitType.EQUAL;
+        spec.values = new long[count];
+        return spec;
+    }
+
+    // Turns the spec into the given split type with random shares: minor units adding up to the
+    // total for UNEQUAL, basis points adding up to 100% for PERCENTAGE.
+    static void randomShares(ExpenseSpec spec, ExpenseSplitType type, Random random) {
+        spec.type = type;
+        if (type == ExpenseSplitType.EQUAL) {
+            return;
+        }
+        long left = type == ExpenseSplitType.UNEQUAL ? spec.total : Money.BASIS_POINTS;
+        for (int i = 0; i < spec.values.length; i++) {
+            spec.values[i] = i == spec.values.length - 1 ? left : (long) (random.nextDouble() * (left + 1));
+            left -= spec.values[i];
+        }
+    }
+
+    // The expense before splitting; users.get(id - 1) is the user with that id.
+    static Expense toExpense(ExpenseSpec spec, List<User> users) {
+        Expense expense = new Expense();
+        expense.expenseId = spec.expenseId;
+        expense.spender = users.get(spec.paidBy - 1);
+        expense.splitType = spec.type;
+        expense.totalAmount = spec.total;
+        expense.spendees = new ArrayList<>();
+        for (int i = 0; i < spec.userIds.length; i++) {
+            User spendee = users.get(spec.userIds[i] - 1);
+            expense.spendees.add(spendee);
+            if (spec.type != ExpenseSplitType.EQUAL) {
+                expense.splitDetails.add(new Split(spendee, spec.values[i]));
+            }
+        }
+        return expense;
+    }
+
+    static void post(BalanceSheetController controller, List<User> users, ExpenseSpec spec) {
+        Expense expense = toExpense(spec, users);
+        new SplitFactory().getSplitObject(expense.splitType).split(expense);
+        controller.updateUserExpenseBalanceSheet(expense.spender, expense.splitDetails, expense.totalAmount);
+    }
+
+    // Equal totals and equal balances with everyone; a zero balance counts as no balance.
+    static boolean sameSheet(UserExpenseBalanceSheet a, UserExpenseBalanceSheet b) {
+        if (a.getTotalPayment() != b.getTotalPayment() || a.getTotalYourExpense() != b.getTotalYourExpense()
+                || a.getTotalYouGetBack() != b.getTotalYouGetBack() || a.getTotalYouOwe() != b.getTotalYouOwe()) {
+            return false;
+        }
+        boolean[] same = { true };
+        a.forEachBalance((other, getBack, owe) -> same[0] &= b.getAmountGetBack((int) other) == getBack
+                && b.getAmountOwe((int) other) == owe);
+        b.forEachBalance((other, getBack, owe) -> same[0] &= a.getAmountGetBack((int) other) == getBack
+                && a.getAmountOwe((int) other) == owe);
+        return same[0];
+    }
+}